@@ -0,0 +1,183 @@
+package nl.vpro.magnolia.jsr107;
+
+import info.magnolia.module.cache.inject.CacheFactoryProvider;
+import info.magnolia.module.cache.mbean.CacheMonitor;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.cache.Cache;
+import javax.cache.annotation.CacheResult;
+
+import org.jsr107.ri.annotations.DefaultGeneratedCacheKey;
+import org.openjdk.jmh.annotations.*;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+import nl.vpro.magnolia.jsr107.mock.MockCacheFactory;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Measures the per call overhead of the {@link CacheResult} interceptors as they are bound by {@link CacheConfigurer}, for
+ * both the blocking (ehcache3) and the non-blocking caches of {@link MockCacheFactory}, and for both the {@link FusedCacheResultInterceptor} and the chain of
+ * interceptors it replaces.
+ *
+ * The nested classes run the same benchmarks with more threads.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class CacheResultBenchmark {
+
+    public static class CachedBean {
+
+        @CacheResult(cacheName = "benchmark-hit")
+        public String hit(String key) {
+            return key;
+        }
+
+        @CacheResult(cacheName = "benchmark-refresh")
+        @DefaultCacheSettings(refreshAfterSeconds = 3600)
+        public String refreshAheadHit(String key) {
+            return key;
+        }
+
+        @CacheResult(cacheName = "benchmark-miss")
+        public String miss(String key) {
+            return key;
+        }
+
+        @CacheResult(cacheName = "benchmark-null")
+        public String nulls(String key) {
+            return null;
+        }
+
+        @CacheResult(cacheName = "benchmark-optional")
+        public Optional<String> optional(String key) {
+            return Optional.of(key);
+        }
+
+        @CacheResult(cacheName = "benchmark-exception", exceptionCacheName = "benchmark-exception-exceptions")
+        public String exception(String key) {
+            throw new IllegalStateException(key);
+        }
+    }
+
+    /**
+     * Every thread misses on its own keys.
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+        private final String[] keys = new String[1024];
+        private int i = 0;
+
+        @Setup
+        public void setup() {
+            for (int j = 0; j < keys.length; j++) {
+                keys[j] = Thread.currentThread().getName() + "-" + j;
+            }
+        }
+
+        String next() {
+            i = (i + 1) & (keys.length - 1);
+            return keys[i];
+        }
+    }
+
+    @Param({"true", "false"})
+    public boolean blocking;
+
+    @Param({"true", "false"})
+    public boolean fused;
+
+    CachedBean bean;
+
+    Cache<Object, Object> missCache;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final MockCacheFactory factory = new MockCacheFactory(blocking);
+        Injector injector = Guice.createInjector(new CacheConfigurer(fused), new AbstractModule() {
+            @Override
+            protected void configure() {
+                // the provider is called on every resolve, so keep mockito out of the measurements as much as possible
+                CacheFactoryProvider fp = mock(CacheFactoryProvider.class, withSettings().stubOnly());
+                when(fp.get()).thenReturn(factory);
+                binder().bind(CacheFactoryProvider.class).toInstance(fp);
+                binder().bind(CacheMonitor.class).toInstance(mock(CacheMonitor.class));
+            }
+        });
+        bean = injector.getInstance(CachedBean.class);
+        missCache = injector.getInstance(MgnlCacheManager.class).getCache("benchmark-miss");
+
+        bean.hit("a");
+        bean.refreshAheadHit("a");
+        bean.nulls("a");
+        bean.optional("a");
+        exception();
+    }
+
+    @Benchmark
+    public String hit() {
+        return bean.hit("a");
+    }
+
+    /**
+     * A hit on a method with refresh ahead, of a value which is not old enough to be refreshed.
+     */
+    @Benchmark
+    public String refreshAheadHit() {
+        return bean.refreshAheadHit("a");
+    }
+
+    /**
+     * Includes the removal of the key, to make sure that the call actually misses.
+     */
+    @Benchmark
+    public String miss(Keys keys) {
+        String key = keys.next();
+        missCache.remove(new DefaultGeneratedCacheKey(new Object[]{key}));
+        return bean.miss(key);
+    }
+
+    @Benchmark
+    public String nulls() {
+        return bean.nulls("a");
+    }
+
+    @Benchmark
+    public Optional<String> optional() {
+        return bean.optional("a");
+    }
+
+    /**
+     * The exception is cached in the exception cache, so this measures rethrowing it.
+     */
+    @Benchmark
+    public Object exception() {
+        try {
+            return bean.exception("a");
+        } catch (IllegalStateException ise) {
+            return ise;
+        }
+    }
+
+    @Threads(4)
+    public static class FourThreads extends CacheResultBenchmark {
+    }
+
+    @Threads(Threads.MAX)
+    public static class MaxThreads extends CacheResultBenchmark {
+    }
+}
@@ -1,24 +1,60 @@
 package nl.vpro.magnolia.jsr107;
 
 import info.magnolia.module.cache.BlockingCache;
+import info.magnolia.module.cache.ehcache3.EhCache3Wrapper;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import javax.cache.Cache;
 import javax.cache.CacheManager;
 import javax.cache.configuration.CacheEntryListenerConfiguration;
 import javax.cache.configuration.Configuration;
+import javax.cache.event.EventType;
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheLoaderException;
+import javax.cache.integration.CacheWriter;
+import javax.cache.integration.CacheWriterException;
 import javax.cache.integration.CompletionListener;
 import javax.cache.processor.EntryProcessor;
 import javax.cache.processor.EntryProcessorException;
 import javax.cache.processor.EntryProcessorResult;
 
-import static nl.vpro.magnolia.jsr107.CacheValue.of;
+import org.ehcache.event.CacheEventListener;
+import org.ehcache.event.EventFiring;
+import org.ehcache.event.EventOrdering;
+import org.ehcache.expiry.Expiry;
+
+import static nl.vpro.magnolia.jsr107.AdaptedCacheStatistics.NOT_SAMPLED;
 
 /**
  * Implements a {@link javax.cache.Cache} backed by a {@link info.magnolia.module.cache.Cache}
  *
+ * Compound operations like {@link #putIfAbsent(Object, Object)} are delegated to the underlying ehcache3 cache if magnolia's cache is
+ * an {@link EhCache3Wrapper}, so they are atomic. For other magnolia caches they are guarded by {@link StripedLocks}, which only makes
+ * them atomic in respect to each other.
+ *
+ * If a {@link CacheWriter} is set, {@link #put(Object, Object)}, {@link #getAndPut(Object, Object)}, {@link #putAll(Map)}, {@link #remove(Object)},
+ * {@link #getAndRemove(Object)} and {@link #removeAll} write through to it before changing the cache. The conditional operations and {@link #invoke}
+ * write through once they know they change the cache: on ehcache3 after the compare-and-set, which is undone if the writer fails. The {@link #NULL} and
+ * {@link #EXCEPTION} markers are never written through, nor reported to listeners.
+ *
+ * The events for registered {@link javax.cache.event.CacheEntryListener}s come from ehcache3's own event service if possible, so expiry and eviction
+ * are visible too. Evicted entries are reported as {@link EventType#REMOVED}. Other magnolia caches only report the changes made via this class.
+ *
+ * If {@link AdaptedCacheStatistics} are set, they are updated by the operations of this class. Only {@link #get(Object)} and {@link #getAll(Set)}
+ * count as gets.
  * @author Michiel Meeuwissen
  * @since 1.0
  */
@@ -27,9 +63,38 @@ class AdaptedCache<K, V> implements Cache<K, V> {
 
     protected static final Object NULL = AdaptedCache.class.getName() + ".NULL";
     protected static final Object EXCEPTION = AdaptedCache.class.getName() + ".EXCEPTION";
+
+    /**
+     * The number of keys handed to {@link CacheLoader#loadAll(Iterable)} at once by {@link #loadAll(Set, boolean, CompletionListener)}.
+     */
+    static final int LOAD_BATCH_SIZE = 100;
     private final info.magnolia.module.cache.Cache mgnlCache;
+    private final org.ehcache.Cache<Object, Object> ehcache;
+    private final StripedLocks locks = new StripedLocks();
     private final CacheManager cacheManager;
     private final Configuration<?, ?> configuration;
+    private volatile CacheLoader<K, V> cacheLoader;
+    /**
+     * Whether {@link #cacheLoader} was created for this cache only, and hence must be closed with it.
+     */
+    private volatile boolean ownCacheLoader;
+    private volatile boolean readThrough;
+    private volatile CacheWriter<K, V> cacheWriter;
+    private final SingleFlight<K, V> loading = new SingleFlight<>();
+    private final MissLatches<K> misses = new MissLatches<>();
+    private final FailedKeys<K> failures = new FailedKeys<>();
+    private volatile Duration blockingTimeout;
+    private volatile int compressionThreshold;
+    /**
+     * See {@link #setStaleAfter(Duration)}, 0 if values are fresh as long as they are stored.
+     */
+    private volatile long staleAfterMillis;
+    private final CacheEntryListeners<K, V> listeners = new CacheEntryListeners<>(this, r -> executor().execute(r));
+    private CacheEventListener<Object, Object> ehcacheListener;
+    private volatile AdaptedCacheStatistics statistics;
+    private CacheEventListener<Object, Object> evictionCounter;
+    private volatile NearCache<K> nearCache;
+    private CacheEventListener<Object, Object> nearCacheInvalidator;
 
     public AdaptedCache(
         info.magnolia.module.cache.Cache mgnlCache,
@@ -37,46 +102,400 @@ class AdaptedCache<K, V> implements Cache<K, V> {
         Configuration<?, ?> configuration
         ) {
         this.mgnlCache = mgnlCache;
+        this.ehcache = ehcache(mgnlCache);
         this.cacheManager = manager;
         this.configuration = configuration;
 
     }
 
+    @SuppressWarnings("unchecked")
+    static org.ehcache.Cache<Object, Object> ehcache(info.magnolia.module.cache.Cache mgnlCache) {
+        if (mgnlCache instanceof EhCache3Wrapper) {
+            return (org.ehcache.Cache<Object, Object>) ((EhCache3Wrapper) mgnlCache).getWrappedEhcache();
+        }
+        return null;
+    }
+
     @Override
     public V get(K key) {
-        CacheValue<V> cacheValue = ((CacheValue<V>) mgnlCache.get(key));
-        if (cacheValue == null) {
+        final Duration timeout = blockingTimeout;
+        if (timeout != null) {
+            return get(key, timeout);
+        }
+        final Object stored = lookup(key);
+        if (stored == null && readThrough) {
+            return load(key);
+        }
+        return value(stored);
+    }
+
+    /**
+     * Get with our own blocking timeout, see {@link #setBlockingTimeout(Duration)}. Magnolia's lock is not used at all then.
+     */
+    private V get(K key, Duration timeout) {
+        final Object stored = lookupQuiet(key);
+        if (stored != null) {
+            return value(stored);
+        }
+        if (readThrough) {
+            final CacheLoader<K, V> loader = cacheLoader;
+            return loading.get(key, k -> loadAndPut(loader, k));
+        }
+        if (timeout.isZero() || misses.claimOrAwait(key, timeout)) {
+            return null;
+        }
+        return value(getCacheValue(key));
+    }
+
+    private Object lookup(K key) {
+        final AdaptedCacheStatistics stats = statistics;
+        final long start = stats == null ? NOT_SAMPLED : stats.start();
+        final Object stored = fresh(read(key, false));
+        if (stats != null) {
+            stats.get(stored != null, start);
+        }
+        return stored;
+    }
+
+    private Object lookupQuiet(K key) {
+        final AdaptedCacheStatistics stats = statistics;
+        final long start = stats == null ? NOT_SAMPLED : stats.start();
+        final Object stored = fresh(read(key, true));
+        if (stats != null) {
+            stats.get(stored != null, start);
+        }
+        return stored;
+    }
+
+    /**
+     * Read-through of a missing key. If the magnolia cache is blocking, we hold its lock for the key now, and other threads are waiting for
+     * us already. Otherwise concurrent loads of the same key are coalesced by {@link SingleFlight}.
+     */
+    private V load(K key) {
+        final CacheLoader<K, V> loader = cacheLoader;
+        if (mgnlCache instanceof BlockingCache) {
+            return loadAndPut(loader, key);
+        }
+        return loading.get(key, k -> loadAndPut(loader, k));
+    }
+
+    private V loadAndPut(CacheLoader<K, V> loader, K key) {
+        final V value;
+        try {
+            value = loader.load(key);
+        } catch (CacheLoaderException cle) {
+            unlock(key);
+            throw cle;
+        } catch (RuntimeException e) {
+            unlock(key);
+            throw new CacheLoaderException(e);
+        }
+        if (value == null) {
+            // nothing to store, but the waiting threads must be released
+            unlock(key);
+        } else {
+            store(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * The {@link CacheValue} as stored, without blocking, and without updating statistics. A {@link #setStaleAfter(Duration) stale} value reads as a miss.
+     */
+    @SuppressWarnings("unchecked")
+    CacheValue<V> getCacheValue(K key) {
+        return (CacheValue<V>) fresh(read(key, true));
+    }
+
+    /**
+     * Like {@link #getCacheValue(Object)}, but also returns a stale value, as long as it is stored.
+     */
+    @SuppressWarnings("unchecked")
+    CacheValue<V> getStoredCacheValue(K key) {
+        return (CacheValue<V>) read(key, true);
+    }
+
+    /**
+     * Like {@link #getCacheValue(Object)}, but a hit counts as a get in the statistics. A miss doesn't, since the caller will {@link #get(Object)} then.
+     */
+    @SuppressWarnings("unchecked")
+    CacheValue<V> getCacheValueIfHit(K key) {
+        final AdaptedCacheStatistics stats = statistics;
+        final long start = stats == null ? NOT_SAMPLED : stats.start();
+        final Object stored = fresh(read(key, true));
+        if (stored != null && stats != null) {
+            stats.get(true, start);
+        }
+        return (CacheValue<V>) stored;
+    }
+
+    /**
+     * Reads from the near cache if there is one, and otherwise from the magnolia cache, remembering the value in the near cache.
+     * @param quiet Whether to read without blocking the magnolia cache
+     */
+    private Object read(K key, boolean quiet) {
+        final NearCache<K> near = nearCache;
+        if (near == null) {
+            return quiet ? readQuiet(key) : mgnlCache.get(key);
+        }
+        Object stored = near.get(key);
+        if (stored != null) {
+            return stored;
+        }
+        final long stamp = near.stamp(key);
+        stored = quiet ? readQuiet(key) : mgnlCache.get(key);
+        if (stored != null) {
+            near.put(key, stored, expires(key, stored), stamp);
+        }
+        return stored;
+    }
+
+    /**
+     * @return The stored value, or <code>null</code> if it is older than {@link #setStaleAfter(Duration)}. A value of which the creation time is unknown
+     * is fresh.
+     */
+    private Object fresh(Object stored) {
+        final long staleAfter = staleAfterMillis;
+        if (stored == null || staleAfter == 0) {
+            return stored;
+        }
+        final long created = ((CacheValue<?>) stored).getCreated();
+        return created == 0 || System.currentTimeMillis() - created <= staleAfter ? stored : null;
+    }
+
+    private Object readQuiet(K key) {
+        return ehcache != null ? ehcache.get(key) : mgnlCache.getQuiet(key);
+    }
+
+    /**
+     * When ehcache3 will expire the stored value, as far as we can tell.
+     */
+    @SuppressWarnings("unchecked")
+    private long expires(K key, Object stored) {
+        if (ehcache == null) {
+            return Long.MAX_VALUE;
+        }
+        final Expiry<Object, Object> expiry = (Expiry<Object, Object>) ehcache.getRuntimeConfiguration().getExpiry();
+        final org.ehcache.expiry.Duration timeToLive = expiry == null ? null : expiry.getExpiryForCreation(key, stored);
+        if (timeToLive == null || timeToLive.isInfinite()) {
+            return Long.MAX_VALUE;
+        }
+        final long created = stored instanceof CacheValue ? ((CacheValue<?>) stored).getCreated() : 0;
+        if (created == 0) {
+            // unknown, don't keep it
+            return 0;
+        }
+        return created + timeToLive.getTimeUnit().toMillis(timeToLive.getLength());
+    }
+
+    /**
+     * Wraps a value to store. If a {@link ValueSerializer} is registered for this cache, the {@link CompactSerializer} must use that for it. The
+     * {@link #setCompressionThreshold(int) compression threshold} is applied when it is serialized.
+     */
+    private CacheValue<V> wrap(V value) {
+        final CacheValue<V> cacheValue = CacheValue.of(value);
+        cacheValue.setCompressionThreshold(compressionThreshold);
+        final String serializer = ValueSerializers.forCache(getName());
+        if (serializer != null) {
+            cacheValue.setSerializer(serializer);
+        }
+        return cacheValue;
+    }
+
+    private void invalidate(K key) {
+        final NearCache<K> near = nearCache;
+        if (near != null) {
+            near.invalidate(key);
+        }
+    }
+
+    private void invalidateAll() {
+        final NearCache<K> near = nearCache;
+        if (near != null) {
+            near.clear();
+        }
+    }
+
+    /**
+     * Unwraps the {@link CacheValue} as stored in the magnolia cache.
+     * @return The value, or <code>null</code> if not present in cache, or if an exception was stored.
+     */
+    @SuppressWarnings("unchecked")
+    private V value(Object stored) {
+        if (stored == null) {
             // Not present in cache
             return null;
         }
-        V result = cacheValue.orNull();
+        V result = ((CacheValue<V>) stored).orNull();
         if (Objects.equals(result, EXCEPTION)) {
             return null;
         }
         return result;
     }
 
+    /**
+     * Runs a compound operation on the magnolia cache while holding the lock for the given key.
+     */
+    private <T> T locked(K key, Supplier<T> operation) {
+        final Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            return operation.get();
+        } finally {
+            lock.unlock();
+            unlock(key);
+        }
+    }
+
+    /**
+     * Gets all values with one call to the underlying store if that is an ehcache3. This never blocks.
+     */
     @Override
+    @SuppressWarnings("unchecked")
     public Map<K, V> getAll(Set<? extends K> keys) {
-        Map<K, V> result = new HashMap<>();
-        for (K k : keys) {
-            if (containsKey(k)) {
-                result.put(k, get(k));
+        final Map<K, V> result = new HashMap<>();
+        if (ehcache != null) {
+            for (Map.Entry<Object, Object> e : ehcache.getAll(keys).entrySet()) {
+                if (fresh(e.getValue()) != null) {
+                    result.put((K) e.getKey(), value(e.getValue()));
+                }
+            }
+        } else {
+            for (K k : keys) {
+                final Object stored = fresh(mgnlCache.getQuiet(k));
+                if (stored != null) {
+                    result.put(k, value(stored));
+                }
             }
         }
+        final AdaptedCacheStatistics stats = statistics;
+        if (stats != null) {
+            stats.gets(result.size(), keys.size() - result.size());
+        }
+        return readThrough(keys, result);
+    }
+
+    private Map<K, V> readThrough(Set<? extends K> keys, Map<K, V> result) {
+        if (! readThrough || result.size() == keys.size()) {
+            return result;
+        }
+        final List<K> missing = new ArrayList<>(keys);
+        missing.removeAll(result.keySet());
+        final Map<K, V> loaded = new HashMap<>(cacheLoader.loadAll(missing));
+        loaded.values().removeIf(Objects::isNull);
+        storeAll(loaded);
+        result.putAll(loaded);
         return result;
     }
 
     @Override
     public boolean containsKey(K key) {
-        boolean result = mgnlCache.hasElement(key);
+        final boolean result = staleAfterMillis == 0 ? mgnlCache.hasElement(key) : getCacheValue(key) != null;
         unlock(key);
         return result;
     }
+    /**
+     * Like {@link #get(Object)}, but releases the lock of a blocking magnolia cache immediately. Concurrent read-through of the same key is
+     * coalesced by {@link SingleFlight} then.
+     */
     public V getUnblocking(K key) {
-        V value = get(key);
+        final Object stored = lookup(key);
         unlock(key);
-        return value;
+        if (stored == null && readThrough) {
+            final CacheLoader<K, V> loader = cacheLoader;
+            return loading.get(key, k -> loadAndPut(loader, k));
+        }
+        return value(stored);
+    }
+
+    /**
+     * Gets the value from the cache, without blocking it, or else calculates and stores it. Concurrent calls for the same key wait for one
+     * calculation (at most {@link #getSingleFlightMaxWait()}). If the function returns <code>null</code>, nothing is stored.
+     */
+    V getUnblocking(K key, Function<? super K, ? extends V> function) {
+        final Object stored = lookup(key);
+        unlock(key);
+        if (stored != null) {
+            return value(stored);
+        }
+        return loading.get(key, k -> {
+            // perhaps it arrived just now
+            final CacheValue<V> arrived = getCacheValue(k);
+            if (arrived != null) {
+                return value(arrived);
+            }
+            final V value = function.apply(k);
+            if (value != null) {
+                store(k, value);
+            }
+            return value;
+        });
+    }
+
+    Duration getBlockingTimeout() {
+        return blockingTimeout;
+    }
+
+    /**
+     * Makes this cache block on its own, instead of relying on magnolia's blocking cache, for which the timeout can only be configured for all caches
+     * together. A thread missing a key which another thread is already calculating waits at most this long for that, and then gets <code>null</code>, so it
+     * will calculate the value itself. {@link Duration#ZERO} means that there is no waiting at all.
+     * @param blockingTimeout <code>null</code> to use the locking of magnolia's cache again.
+     */
+    void setBlockingTimeout(Duration blockingTimeout) {
+        if (blockingTimeout != null && blockingTimeout.isNegative()) {
+            throw new IllegalArgumentException("Negative blocking timeout " + blockingTimeout);
+        }
+        this.blockingTimeout = blockingTimeout;
+    }
+
+    int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Values stored from now on are compressed when they are moved to an off-heap or disk tier, if they are serialized to at least this many bytes.
+     * @param compressionThreshold 0 for no compression
+     */
+    void setCompressionThreshold(int compressionThreshold) {
+        if (compressionThreshold < 0) {
+            throw new IllegalArgumentException("Negative compression threshold " + compressionThreshold);
+        }
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    Duration getStaleAfter() {
+        return staleAfterMillis == 0 ? null : Duration.ofMillis(staleAfterMillis);
+    }
+
+    /**
+     * Values older than this read as misses, though the expiry of the magnolia cache may keep them longer. That is how
+     * {@link DefaultCacheSettings#staleIfErrorSeconds()} is implemented: only the {@link FusedCacheResultInterceptor} still uses such a value, via
+     * {@link #getStoredCacheValue(Object)}, if calculating it again fails.
+     * @param staleAfter <code>null</code> if values are fresh as long as they are stored
+     */
+    void setStaleAfter(Duration staleAfter) {
+        if (staleAfter != null && (staleAfter.isNegative() || staleAfter.isZero())) {
+            throw new IllegalArgumentException("Stale after " + staleAfter);
+        }
+        this.staleAfterMillis = staleAfter == null ? 0 : staleAfter.toMillis();
+    }
+
+    Duration getSingleFlightMaxWait() {
+        return loading.getMaxWait();
+    }
+
+    void setSingleFlightMaxWait(Duration maxWait) {
+        loading.setMaxWait(maxWait);
+    }
+
+    /**
+     * Releases the lock of magnolia's blocking cache, and the threads waiting for the key in {@link #get(Object, Duration)}. This is needed after a write to
+     * the ehcache3 store itself, which bypasses {@link #store(Object, Object)} and {@link #discard(Object)}, and after a miss which won't be followed by a put.
+     */
+    void release(K key) {
+        unlock(key);
+        misses.release(key);
     }
 
     public void unlock(K key) {
@@ -85,117 +504,586 @@ class AdaptedCache<K, V> implements Cache<K, V> {
         }
     }
 
+    /**
+     * Sets a loader which may be shared, e.g. one registered with {@link MgnlCacheManager#registerCacheLoader(String, CacheLoader)}. It is not closed by {@link #close()}.
+     */
+    void setCacheLoader(CacheLoader<K, V> cacheLoader) {
+        setCacheLoader(cacheLoader, false);
+    }
+
+    /**
+     * @param own Whether the loader was created for this cache, e.g. by the loader factory of its configuration. If so, it is closed by {@link #close()}, or when it is replaced.
+     */
+    void setCacheLoader(CacheLoader<K, V> cacheLoader, boolean own) {
+        final CacheLoader<K, V> previous = this.cacheLoader;
+        final boolean closePrevious = ownCacheLoader && previous != cacheLoader;
+        this.cacheLoader = cacheLoader;
+        this.ownCacheLoader = own;
+        if (closePrevious) {
+            close(previous);
+        }
+    }
+
+    /**
+     * The writers are created by the writer factory of the configuration for this cache only, so they are closed by {@link #close()}.
+     */
+    void setCacheWriter(CacheWriter<K, V> cacheWriter) {
+        this.cacheWriter = cacheWriter;
+    }
+
+    /**
+     * Sets the statistics to keep up to date, or <code>null</code> to stop doing that. Evictions are only counted for ehcache3 caches.
+     */
+    synchronized void setStatistics(AdaptedCacheStatistics statistics) {
+        this.statistics = statistics;
+        if (ehcache == null) {
+            return;
+        }
+        if (statistics != null && evictionCounter == null) {
+            evictionCounter = event -> {
+                final AdaptedCacheStatistics stats = this.statistics;
+                if (stats != null) {
+                    stats.eviction();
+                }
+            };
+            ehcache.getRuntimeConfiguration().registerCacheEventListener(evictionCounter, EventOrdering.UNORDERED, EventFiring.ASYNCHRONOUS, EnumSet.of(org.ehcache.event.EventType.EVICTED));
+        } else if (statistics == null && evictionCounter != null) {
+            ehcache.getRuntimeConfiguration().deregisterCacheEventListener(evictionCounter);
+            evictionCounter = null;
+        }
+    }
+
+    private boolean puts(boolean put) {
+        final AdaptedCacheStatistics stats = statistics;
+        if (put && stats != null) {
+            stats.puts(1);
+        }
+        return put;
+    }
+
+    private boolean removes(boolean removed) {
+        final AdaptedCacheStatistics stats = statistics;
+        if (removed && stats != null) {
+            stats.removals(1);
+        }
+        return removed;
+    }
+
+    /**
+     * Puts a {@link NearCache} in front of the magnolia cache, or removes it. This is useful for caches which overflow to disk, because the values of
+     * the near cache need no disk access or deserialization. Changes made via this class are visible immediately. For ehcache3 caches the changes made by
+     * others, expiry and eviction are too, but not a clear of the magnolia cache. Those are only noticed after the time to live of the near cache.
+     * @param maxSize The maximal number of entries in the near cache. 0 for no near cache.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized void setNearCache(int maxSize, Duration timeToLive) {
+        nearCache = maxSize <= 0 ? null : new NearCache<>(maxSize, timeToLive);
+        if (ehcache == null) {
+            return;
+        }
+        if (nearCache != null && nearCacheInvalidator == null) {
+            nearCacheInvalidator = event -> invalidate((K) event.getKey());
+            ehcache.getRuntimeConfiguration().registerCacheEventListener(nearCacheInvalidator, EventOrdering.UNORDERED, EventFiring.SYNCHRONOUS,
+                EnumSet.of(org.ehcache.event.EventType.UPDATED, org.ehcache.event.EventType.REMOVED, org.ehcache.event.EventType.EXPIRED, org.ehcache.event.EventType.EVICTED));
+        } else if (nearCache == null && nearCacheInvalidator != null) {
+            ehcache.getRuntimeConfiguration().deregisterCacheEventListener(nearCacheInvalidator);
+            nearCacheInvalidator = null;
+        }
+    }
+
+    /**
+     * The keys for which the calculation failed recently, see {@link ExceptionBackoff}.
+     */
+    FailedKeys<K> getFailures() {
+        return failures;
+    }
+
+    NearCache<K> getNearCache() {
+        return nearCache;
+    }
+
+    /**
+     * Whether {@link #get(Object)} and {@link #getAll(Set)} should use the {@link CacheLoader} for missing keys. Ignored if there is no loader.
+     */
+    void setReadThrough(boolean readThrough) {
+        this.readThrough = readThrough;
+    }
+
+    /**
+     * Loads the keys in batches of {@link #LOAD_BATCH_SIZE}, in parallel on the executor of the {@link MgnlCacheManager}. The loaded values
+     * of every batch are stored at once, and not written through. Keys for which the loader returns <code>null</code> are not stored.
+     */
     @Override
     public void loadAll(Set<? extends K> keys, boolean replaceExistingValues, CompletionListener completionListener) {
-        log.debug("loading ", keys);
-        throw new UnsupportedOperationException();
-
+        final CacheLoader<K, V> loader = cacheLoader;
+        if (loader == null) {
+            log.debug("No cache loader for {}, not loading {}", getName(), keys);
+            if (completionListener != null) {
+                completionListener.onCompletion();
+            }
+            return;
+        }
+        final List<K> toLoad = new ArrayList<>(keys);
+        if (! replaceExistingValues) {
+            // quietly: no read through, no blocking and no statistics
+            toLoad.removeIf(key -> value(getCacheValue(key)) != null);
+        }
+        log.debug("Loading {} keys for {}", toLoad.size(), getName());
+        final Executor executor = executor();
+        final List<CompletableFuture<Void>> batches = new ArrayList<>();
+        for (int i = 0; i < toLoad.size(); i += LOAD_BATCH_SIZE) {
+            final List<K> batch = new ArrayList<>(toLoad.subList(i, Math.min(toLoad.size(), i + LOAD_BATCH_SIZE)));
+            batches.add(CompletableFuture.runAsync(() -> {
+                final Map<K, V> loaded = new HashMap<>(loader.loadAll(batch));
+                loaded.values().removeIf(Objects::isNull);
+                storeAll(loaded);
+            }, executor));
+        }
+        CompletableFuture.allOf(batches.toArray(new CompletableFuture[batches.size()])).whenComplete((v, t) -> {
+            if (completionListener == null) {
+                if (t != null) {
+                    log.warn("Loading for {} failed: {}", getName(), t.getMessage());
+                }
+                return;
+            }
+            if (t == null) {
+                completionListener.onCompletion();
+            } else {
+                final Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                completionListener.onException(cause instanceof Exception ? (Exception) cause : new CacheLoaderException(cause));
+            }
+        });
     }
 
     @Override
     public void put(K key, V value) {
-        mgnlCache.put(key, of(value));
+        final AdaptedCacheStatistics stats = statistics;
+        final long start = stats == null ? NOT_SAMPLED : stats.start();
+        try {
+            write(key, value);
+        } catch (CacheWriterException cwe) {
+            unlock(key);
+            misses.release(key);
+            throw cwe;
+        }
+        store(key, value);
+        if (stats != null) {
+            stats.put(start);
+        }
+    }
+
+    private void store(K key, V value) {
+        puts(true);
+        succeeded(key, value);
+        if (ehcache == null && ! listeners.isEmpty()) {
+            final Object previous = mgnlCache.getQuiet(key);
+            mgnlCache.put(key, wrap(value));
+            invalidate(key);
+            misses.release(key);
+            if (! isMarker(value)) {
+                final V previousValue = visible(previous);
+                listeners.fire(previousValue == null ? EventType.CREATED : EventType.UPDATED, key, previousValue, value);
+            }
+            return;
+        }
+        mgnlCache.put(key, wrap(value));
+        invalidate(key);
+        misses.release(key);
+    }
+
+    /**
+     * A value was stored for the key, so calls for it don't need to back off any more. Unless that value is the marker of a failure.
+     */
+    private void succeeded(K key, V value) {
+        if (! Objects.equals(value, EXCEPTION)) {
+            failures.reset(key);
+        }
+    }
+
+    /**
+     * Removes from the magnolia cache. Like {@link #store(Object, Object)}, this fires the events itself if ehcache3 can't do that.
+     */
+    private void discard(K key) {
+        failures.reset(key);
+        if (ehcache == null && ! listeners.isEmpty()) {
+            final Object previous = mgnlCache.getQuiet(key);
+            mgnlCache.remove(key);
+            invalidate(key);
+            misses.release(key);
+            final V previousValue = visible(previous);
+            if (previousValue != null) {
+                listeners.fire(EventType.REMOVED, key, previousValue, previousValue);
+            }
+            return;
+        }
+        mgnlCache.remove(key);
+        invalidate(key);
+        misses.release(key);
+    }
+
+    private void writeThrough(Consumer<CacheWriter<K, V>> operation) {
+        final CacheWriter<K, V> writer = cacheWriter;
+        if (writer == null) {
+            return;
+        }
+        try {
+            operation.accept(writer);
+        } catch (CacheWriterException cwe) {
+            throw cwe;
+        } catch (RuntimeException e) {
+            throw new CacheWriterException(e);
+        }
+    }
+
+    private void write(K key, V value) {
+        if (! isMarker(value)) {
+            writeThrough(writer -> writer.write(new SimpleCacheEntry<>(key, value)));
+        }
+    }
+
+    private void delete(K key) {
+        writeThrough(writer -> writer.delete(key));
+    }
+
+    /**
+     * Writes through after a compare-and-set on the ehcache3 store changed <code>previous</code> into <code>current</code> (either may be <code>null</code>).
+     * If the writer fails, the change is undone, unless the entry was changed again in the mean time.
+     */
+    private void writeThrough(K key, Object previous, Object current, Runnable write) {
+        try {
+            write.run();
+        } catch (CacheWriterException cwe) {
+            if (current == null) {
+                ehcache.putIfAbsent(key, previous);
+            } else if (previous == null) {
+                ehcache.remove(key, current);
+            } else {
+                ehcache.replace(key, current, previous);
+            }
+            invalidate(key);
+            throw cwe;
+        }
+    }
+
+    /**
+     * Whether the value is one of the markers the interceptors store, rather than a value of the cache.
+     */
+    private static boolean isMarker(Object value) {
+        return Objects.equals(value, NULL) || Objects.equals(value, EXCEPTION);
+    }
+
+    /**
+     * Like {@link #value(Object)}, but the markers count as absent. This is what is reported to listeners.
+     */
+    private V visible(Object stored) {
+        final V value = value(stored);
+        return isMarker(value) ? null : value;
     }
 
     @Override
     public V getAndPut(K key, V value) {
-        V previousValue = get(key);
-        put(key, value);
-        return previousValue;
+        try {
+            write(key, value);
+        } catch (CacheWriterException cwe) {
+            release(key);
+            throw cwe;
+        }
+        if (ehcache != null) {
+            final CacheValue<V> newValue = wrap(value);
+            try {
+                succeeded(key, value);
+                while (true) {
+                    final Object previous = ehcache.get(key);
+                    if (previous == null) {
+                        if (puts(ehcache.putIfAbsent(key, newValue) == null)) {
+                            return null;
+                        }
+                    } else if (puts(ehcache.replace(key, previous, newValue))) {
+                        return value(previous);
+                    }
+                }
+            } finally {
+                release(key);
+            }
+        }
+        return locked(key, () -> {
+            V previousValue = value(mgnlCache.getQuiet(key));
+            store(key, value);
+            return previousValue;
+        });
     }
 
     @Override
     public void putAll(Map<? extends K, ? extends V> map) {
+        if (cacheWriter != null) {
+            final Collection<Cache.Entry<? extends K, ? extends V>> entries = new ArrayList<>();
+            for (Map.Entry<? extends K, ? extends V> e : map.entrySet()) {
+                if (! isMarker(e.getValue())) {
+                    entries.add(new SimpleCacheEntry<>(e.getKey(), e.getValue()));
+                }
+            }
+            writeThrough(writer -> writer.writeAll(entries));
+        }
+        storeAll(map);
+    }
+
+    private void storeAll(Map<? extends K, ? extends V> map) {
+        if (ehcache != null) {
+            final Map<Object, Object> values = new HashMap<>();
+            for (Map.Entry<? extends K, ? extends V> e : map.entrySet()) {
+                values.put(e.getKey(), wrap(e.getValue()));
+            }
+            ehcache.putAll(values);
+            map.forEach(this::succeeded);
+            map.keySet().forEach(this::invalidate);
+            // magnolia may have blocked other threads on these keys too
+            map.keySet().forEach(this::release);
+            final AdaptedCacheStatistics stats = statistics;
+            if (stats != null) {
+                stats.puts(values.size());
+            }
+            return;
+        }
         for (Map.Entry<? extends K, ? extends V> e : map.entrySet()) {
-            put(e.getKey(), e.getValue());
+            store(e.getKey(), e.getValue());
         }
     }
 
     @Override
     public boolean putIfAbsent(K key, V value) {
-        if (! containsKey(key)) {
-            put(key, value);
-            return true;
-        } else {
-            return false;
+        if (ehcache != null) {
+            final CacheValue<V> newValue = wrap(value);
+            try {
+                if (! puts(ehcache.putIfAbsent(key, newValue) == null)) {
+                    return false;
+                }
+                writeThrough(key, null, newValue, () -> write(key, value));
+                succeeded(key, value);
+                return true;
+            } finally {
+                release(key);
+            }
         }
-
+        return locked(key, () -> {
+            if (mgnlCache.getQuiet(key) == null) {
+                write(key, value);
+                store(key, value);
+                return true;
+            }
+            return false;
+        });
     }
 
     @Override
     public boolean remove(K key) {
-        boolean result = containsKey(key);
-        mgnlCache.remove(key);
-        return result;
-
+        final AdaptedCacheStatistics stats = statistics;
+        final long start = stats == null ? NOT_SAMPLED : stats.start();
+        delete(key);
+        final boolean result;
+        if (ehcache != null) {
+            result = removeFromEhcache(key) != null;
+        } else {
+            result = locked(key, () -> {
+                boolean present = mgnlCache.getQuiet(key) != null;
+                discard(key);
+                return present;
+            });
+        }
+        if (stats != null) {
+            stats.remove(start);
+        }
+        return removes(result);
     }
 
     @Override
     public boolean remove(K key, V oldValue) {
-        V compare = get(key);
-        if (compare != null && compare.equals(oldValue)) {
-            mgnlCache.remove(key);
-            return true;
+        if (ehcache != null) {
+            final CacheValue<V> removedValue = wrap(oldValue);
+            try {
+                final boolean removed = ehcache.remove(key, removedValue);
+                if (removed) {
+                    failures.reset(key);
+                    writeThrough(key, removedValue, null, () -> delete(key));
+                }
+                return removes(removed);
+            } finally {
+                release(key);
+            }
         }
-        return false;
-
+        return locked(key, () -> {
+            V compare = value(mgnlCache.getQuiet(key));
+            if (compare != null && compare.equals(oldValue)) {
+                delete(key);
+                discard(key);
+                return removes(true);
+            }
+            return false;
+        });
     }
 
     @Override
     public V getAndRemove(K key) {
-        V result = get(key);
-        remove(key);
-        return result;
-
+        delete(key);
+        if (ehcache != null) {
+            final Object removed = removeFromEhcache(key);
+            removes(removed != null);
+            return value(removed);
+        }
+        return locked(key, () -> {
+            Object removed = mgnlCache.getQuiet(key);
+            discard(key);
+            removes(removed != null);
+            return value(removed);
+        });
     }
 
     @Override
     public boolean replace(K key, V oldValue, V newValue) {
-        V compare = get(key);
-        if (compare != null && compare.equals(oldValue)) {
-            put(key, newValue);
-            return true;
+        if (ehcache != null) {
+            final CacheValue<V> previous = wrap(oldValue);
+            final CacheValue<V> current = wrap(newValue);
+            try {
+                if (! puts(ehcache.replace(key, previous, current))) {
+                    return false;
+                }
+                writeThrough(key, previous, current, () -> write(key, newValue));
+                succeeded(key, newValue);
+                return true;
+            } finally {
+                release(key);
+            }
         }
-        return false;
-
+        return locked(key, () -> {
+            V compare = value(mgnlCache.getQuiet(key));
+            if (compare != null && compare.equals(oldValue)) {
+                write(key, newValue);
+                store(key, newValue);
+                return true;
+            }
+            return false;
+        });
     }
 
     @Override
     public boolean replace(K key, V value) {
-        boolean result = mgnlCache.hasElement(key);
-        if (result) {
-            put(key, value);
-            return true;
+        if (ehcache != null) {
+            final CacheValue<V> newValue = wrap(value);
+            try {
+                final Object previous = ehcache.replace(key, newValue);
+                if (! puts(previous != null)) {
+                    return false;
+                }
+                writeThrough(key, previous, newValue, () -> write(key, value));
+                succeeded(key, value);
+                return true;
+            } finally {
+                release(key);
+            }
         }
-        return false;
+        return locked(key, () -> {
+            if (mgnlCache.getQuiet(key) != null) {
+                write(key, value);
+                store(key, value);
+                return true;
+            }
+            return false;
+        });
     }
 
     @Override
     public V getAndReplace(K key, V value) {
-        if (containsKey(key)) {
-            V oldValue = get(key);
-            put(key, value);
-            return oldValue;
+        if (ehcache != null) {
+            final CacheValue<V> newValue = wrap(value);
+            try {
+                final Object previous = ehcache.replace(key, newValue);
+                if (puts(previous != null)) {
+                    writeThrough(key, previous, newValue, () -> write(key, value));
+                    succeeded(key, value);
+                }
+                return value(previous);
+            } finally {
+                release(key);
+            }
         }
-        return null;
+        return locked(key, () -> {
+            Object previous = mgnlCache.getQuiet(key);
+            if (previous != null) {
+                write(key, value);
+                store(key, value);
+            }
+            return value(previous);
+        });
+    }
 
+    /**
+     * ehcache3 has no atomic 'getAndRemove' or 'remove' that tells whether something was removed.
+     * @return The stored value that was removed, or <code>null</code> if there was none.
+     */
+    private Object removeFromEhcache(K key) {
+        failures.reset(key);
+        try {
+            while (true) {
+                final Object previous = ehcache.get(key);
+                if (previous == null) {
+                    return null;
+                }
+                if (ehcache.remove(key, previous)) {
+                    return previous;
+                }
+            }
+        } finally {
+            release(key);
+        }
     }
 
     @Override
     public void removeAll(Set<? extends K> keys) {
+        writeThrough(writer -> writer.deleteAll(new ArrayList<>(keys)));
+        final AdaptedCacheStatistics stats = statistics;
+        if (stats != null) {
+            // not all keys need to have been present, but counting them would cost another call
+            stats.removals(keys.size());
+        }
+        if (ehcache != null) {
+            ehcache.removeAll(keys);
+            keys.forEach(this::invalidate);
+            keys.forEach(misses::release);
+            keys.forEach(failures::reset);
+            return;
+        }
         for (K key : keys) {
-            remove(key);
+            discard(key);
         }
     }
 
     @Override
     public void removeAll() {
-        mgnlCache.clear();
+        // materializing the keys may be expensive, so only once
+        final List<Object> keys = new ArrayList<>(mgnlCache.getKeys());
+        writeThrough(writer -> writer.deleteAll(new ArrayList<>(keys)));
+        final AdaptedCacheStatistics stats = statistics;
+        if (stats != null) {
+            stats.removals(keys.size());
+        }
+        if (listeners.isEmpty()) {
+            mgnlCache.clear();
+            invalidateAll();
+            failures.clear();
+            return;
+        }
+        // one by one, so that the listeners get their events
+        for (Object key : keys) {
+            discard((K) key);
+        }
+        // also the keys which failed, but of which nothing is stored any more
+        failures.clear();
     }
 
     @Override
     public void clear() {
         mgnlCache.clear();
+        invalidateAll();
+        failures.clear();
     }
 
     @Override
@@ -203,15 +1091,103 @@ class AdaptedCache<K, V> implements Cache<K, V> {
         return (C) configuration;
     }
 
+    /**
+     * Entry processors for the same key run one after another. The result is applied to an ehcache3 store with compare-and-set
+     * operations, and if some other operation modified the entry in the mean time, the processor is run again.
+     */
     @Override
     public <T> T invoke(K key, EntryProcessor<K, V, T> entryProcessor, Object... arguments) throws EntryProcessorException {
-        throw new UnsupportedOperationException();
+        final Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            while (true) {
+                final Object stored = ehcache != null ? ehcache.get(key) : mgnlCache.getQuiet(key);
+                final AdaptedMutableEntry<K, V> entry = new AdaptedMutableEntry<>(key, value(stored), stored != null);
+                final T result;
+                try {
+                    result = entryProcessor.process(entry, arguments);
+                } catch (EntryProcessorException epe) {
+                    throw epe;
+                } catch (Exception e) {
+                    throw new EntryProcessorException(e);
+                }
+                if (apply(key, stored, entry)) {
+                    return result;
+                }
+                log.debug("{} was modified concurrently, processing again", key);
+            }
+        } finally {
+            lock.unlock();
+            release(key);
+        }
     }
 
+    /**
+     * @return <code>false</code> if the stored value was not the one the entry processor saw anymore
+     */
+    private boolean apply(K key, Object stored, AdaptedMutableEntry<K, V> entry) {
+        switch (entry.getOperation()) {
+            case UPDATE:
+                if (ehcache != null) {
+                    final CacheValue<V> newValue = wrap(entry.getValue());
+                    if (! puts(stored == null ? ehcache.putIfAbsent(key, newValue) == null : ehcache.replace(key, stored, newValue))) {
+                        return false;
+                    }
+                    writeThrough(key, stored, newValue, () -> write(key, entry.getValue()));
+                    succeeded(key, entry.getValue());
+                    return true;
+                }
+                write(key, entry.getValue());
+                store(key, entry.getValue());
+                return true;
+            case REMOVE:
+                if (stored == null) {
+                    return true;
+                }
+                if (ehcache != null) {
+                    final boolean removed = ehcache.remove(key, stored);
+                    if (removed) {
+                        failures.reset(key);
+                        writeThrough(key, stored, null, () -> delete(key));
+                    }
+                    return removes(removed);
+                }
+                delete(key);
+                discard(key);
+                return removes(true);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * The keys are processed one after another, on the calling thread. Not on the executor of the {@link MgnlCacheManager}, since that one also runs
+     * the work (listener events, loads) an entry processor may end up waiting for.
+     */
     @Override
     public <T> Map<K, EntryProcessorResult<T>> invokeAll(Set<? extends K> keys, EntryProcessor<K, V, T> entryProcessor, Object... arguments) {
-        throw new UnsupportedOperationException();
+        final Map<K, EntryProcessorResult<T>> results = new HashMap<>();
+        for (K key : keys) {
+            try {
+                final T result = invoke(key, entryProcessor, arguments);
+                if (result != null) {
+                    results.put(key, () -> result);
+                }
+            } catch (RuntimeException e) {
+                final EntryProcessorException epe = e instanceof EntryProcessorException ? (EntryProcessorException) e : new EntryProcessorException(e);
+                results.put(key, () -> {
+                    throw epe;
+                });
+            }
+        }
+        return results;
+    }
 
+    Executor executor() {
+        if (cacheManager instanceof MgnlCacheManager) {
+            return ((MgnlCacheManager) cacheManager).getExecutor();
+        }
+        return ForkJoinPool.commonPool();
     }
 
     @Override
@@ -225,9 +1201,26 @@ class AdaptedCache<K, V> implements Cache<K, V> {
 
     }
 
+    /**
+     * Closes the {@link CacheLoader} and {@link CacheWriter} if they are {@link Closeable}. A {@link WriteBehindCacheWriter} writes everything that is
+     * still queued then. The magnolia cache itself stays available.
+     */
     @Override
     public void close() {
+        if (ownCacheLoader) {
+            close(cacheLoader);
+        }
+        close(cacheWriter);
+    }
 
+    private void close(Object closeable) {
+        if (closeable instanceof Closeable) {
+            try {
+                ((Closeable) closeable).close();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not close {} of {}: {}", closeable, getName(), e.getMessage());
+            }
+        }
     }
 
     @Override
@@ -245,14 +1238,56 @@ class AdaptedCache<K, V> implements Cache<K, V> {
     }
 
     @Override
-    public void registerCacheEntryListener(CacheEntryListenerConfiguration<K, V> cacheEntryListenerConfiguration) {
-        throw new UnsupportedOperationException();
-
+    @SuppressWarnings("unchecked")
+    public synchronized void registerCacheEntryListener(CacheEntryListenerConfiguration<K, V> cacheEntryListenerConfiguration) {
+        listeners.register(cacheEntryListenerConfiguration);
+        if (cacheManager instanceof MgnlCacheManager) {
+            // the manager registers it again on the cache which replaces this one
+            ((MgnlCacheManager) cacheManager).registered(getName(), cacheEntryListenerConfiguration);
+        }
+        if (ehcache != null && ehcacheListener == null) {
+            ehcacheListener = event -> {
+                final EventType type = eventType(event.getType());
+                final V oldValue = visible(event.getOldValue());
+                if (type == EventType.CREATED || type == EventType.UPDATED) {
+                    final V newValue = visible(event.getNewValue());
+                    // storing a marker isn't reported, and replacing one counts as a creation
+                    if (newValue != null) {
+                        listeners.fire(oldValue == null ? EventType.CREATED : EventType.UPDATED, (K) event.getKey(), oldValue, newValue);
+                    }
+                } else if (oldValue != null) {
+                    listeners.fire(type, (K) event.getKey(), oldValue, oldValue);
+                }
+            };
+            ehcache.getRuntimeConfiguration().registerCacheEventListener(ehcacheListener, EventOrdering.ORDERED, EventFiring.SYNCHRONOUS, EnumSet.allOf(org.ehcache.event.EventType.class));
+        }
     }
 
     @Override
-    public void deregisterCacheEntryListener(CacheEntryListenerConfiguration<K, V> cacheEntryListenerConfiguration) {
-        throw new UnsupportedOperationException();
+    public synchronized void deregisterCacheEntryListener(CacheEntryListenerConfiguration<K, V> cacheEntryListenerConfiguration) {
+        listeners.deregister(cacheEntryListenerConfiguration);
+        if (cacheManager instanceof MgnlCacheManager) {
+            ((MgnlCacheManager) cacheManager).deregistered(getName(), cacheEntryListenerConfiguration);
+        }
+        if (listeners.isEmpty() && ehcacheListener != null) {
+            ehcache.getRuntimeConfiguration().deregisterCacheEventListener(ehcacheListener);
+            ehcacheListener = null;
+        }
+    }
+
+    private static EventType eventType(org.ehcache.event.EventType type) {
+        switch (type) {
+            case CREATED:
+                return EventType.CREATED;
+            case UPDATED:
+                return EventType.UPDATED;
+            case EXPIRED:
+                return EventType.EXPIRED;
+            case REMOVED:
+            case EVICTED:
+            default:
+                return EventType.REMOVED;
+        }
     }
 
     @Override
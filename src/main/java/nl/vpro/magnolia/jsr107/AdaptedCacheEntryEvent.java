@@ -0,0 +1,61 @@
+package nl.vpro.magnolia.jsr107;
+
+import javax.cache.Cache;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.EventType;
+
+/**
+ * The {@link CacheEntryEvent}s fired by {@link AdaptedCache}. For {@link EventType#REMOVED} and {@link EventType#EXPIRED} the value is the value the entry had.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+class AdaptedCacheEntryEvent<K, V> extends CacheEntryEvent<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final K key;
+    private final V value;
+    private final V oldValue;
+    private final boolean oldValueAvailable;
+
+    AdaptedCacheEntryEvent(Cache<K, V> source, EventType eventType, K key, V value, V oldValue, boolean oldValueAvailable) {
+        super(source, eventType);
+        this.key = key;
+        this.value = value;
+        this.oldValue = oldValue;
+        this.oldValueAvailable = oldValueAvailable;
+    }
+
+    @Override
+    public K getKey() {
+        return key;
+    }
+
+    @Override
+    public V getValue() {
+        return value;
+    }
+
+    @Override
+    public V getOldValue() {
+        return oldValue;
+    }
+
+    @Override
+    public boolean isOldValueAvailable() {
+        return oldValueAvailable;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> clazz) {
+        if (clazz.isInstance(this)) {
+            return clazz.cast(this);
+        }
+        throw new IllegalArgumentException("Cannot unwrap to " + clazz);
+    }
+
+    @Override
+    public String toString() {
+        return getEventType() + " " + key + "=" + value;
+    }
+}
@@ -0,0 +1,70 @@
+package nl.vpro.magnolia.jsr107;
+
+import javax.cache.configuration.CompleteConfiguration;
+import javax.cache.configuration.Configuration;
+import javax.cache.management.CacheMXBean;
+
+/**
+ * Exposes the configuration of a cache of {@link MgnlCacheManager}, as registered by {@link MgnlCacheManager#enableManagement(String, boolean)}.
+ * Settings which are not part of the configuration the cache was created with are reported as <code>false</code>.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+class AdaptedCacheMXBean implements CacheMXBean {
+
+    private final MgnlCacheManager cacheManager;
+    private final String cacheName;
+
+    AdaptedCacheMXBean(MgnlCacheManager cacheManager, String cacheName) {
+        this.cacheManager = cacheManager;
+        this.cacheName = cacheName;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Configuration<?, ?> configuration() {
+        final Configuration<?, ?> configuration = cacheManager.getCache(cacheName).getConfiguration(Configuration.class);
+        return configuration == null ? MgnlCacheConfiguration.INSTANCE : configuration;
+    }
+
+    private CompleteConfiguration<?, ?> complete() {
+        final Configuration<?, ?> configuration = configuration();
+        return configuration instanceof CompleteConfiguration ? (CompleteConfiguration<?, ?>) configuration : null;
+    }
+
+    @Override
+    public String getKeyType() {
+        return configuration().getKeyType().getName();
+    }
+
+    @Override
+    public String getValueType() {
+        return configuration().getValueType().getName();
+    }
+
+    @Override
+    public boolean isReadThrough() {
+        final CompleteConfiguration<?, ?> complete = complete();
+        return complete != null && complete.isReadThrough();
+    }
+
+    @Override
+    public boolean isWriteThrough() {
+        final CompleteConfiguration<?, ?> complete = complete();
+        return complete != null && complete.isWriteThrough();
+    }
+
+    @Override
+    public boolean isStoreByValue() {
+        return configuration().isStoreByValue();
+    }
+
+    @Override
+    public boolean isStatisticsEnabled() {
+        return cacheManager.isStatisticsEnabled(cacheName);
+    }
+
+    @Override
+    public boolean isManagementEnabled() {
+        return true;
+    }
+}
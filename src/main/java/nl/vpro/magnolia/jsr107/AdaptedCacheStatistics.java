@@ -0,0 +1,160 @@
+package nl.vpro.magnolia.jsr107;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.cache.management.CacheStatisticsMXBean;
+
+/**
+ * Statistics of an {@link AdaptedCache}. All counters are {@link LongAdder}s, so threads updating them don't contend. Timing only happens for about
+ * one in {@link #SAMPLE_RATE} calls, so the hit path mostly doesn't even call {@link System#nanoTime()}. The average times are in microseconds,
+ * like in {@link CacheStatisticsMXBean}.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+class AdaptedCacheStatistics implements CacheStatisticsMXBean {
+
+    static final int SAMPLE_RATE = 16;
+
+    static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder removals = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final Timing getTime = new Timing();
+    private final Timing putTime = new Timing();
+    private final Timing removeTime = new Timing();
+
+    /**
+     * @return The current {@link System#nanoTime()} if this call is to be timed, {@link #NOT_SAMPLED} otherwise
+     */
+    long start() {
+        return (ThreadLocalRandom.current().nextInt() & (SAMPLE_RATE - 1)) == 0 ? System.nanoTime() : NOT_SAMPLED;
+    }
+
+    void get(boolean hit, long start) {
+        (hit ? hits : misses).increment();
+        getTime.record(start);
+    }
+
+    void gets(int hitCount, int missCount) {
+        hits.add(hitCount);
+        misses.add(missCount);
+    }
+
+    void put(long start) {
+        putTime.record(start);
+    }
+
+    void puts(int count) {
+        puts.add(count);
+    }
+
+    void remove(long start) {
+        removeTime.record(start);
+    }
+
+    void removals(int count) {
+        removals.add(count);
+    }
+
+    void eviction() {
+        evictions.increment();
+    }
+
+    @Override
+    public void clear() {
+        hits.reset();
+        misses.reset();
+        puts.reset();
+        removals.reset();
+        evictions.reset();
+        getTime.reset();
+        putTime.reset();
+        removeTime.reset();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public float getCacheHitPercentage() {
+        final long hits = getCacheHits();
+        final long gets = hits + getCacheMisses();
+        return gets == 0 ? 0 : 100f * hits / gets;
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public float getCacheMissPercentage() {
+        final long misses = getCacheMisses();
+        final long gets = misses + getCacheHits();
+        return gets == 0 ? 0 : 100f * misses / gets;
+    }
+
+    @Override
+    public long getCacheGets() {
+        return getCacheHits() + getCacheMisses();
+    }
+
+    @Override
+    public long getCachePuts() {
+        return puts.sum();
+    }
+
+    @Override
+    public long getCacheRemovals() {
+        return removals.sum();
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public float getAverageGetTime() {
+        return getTime.average();
+    }
+
+    @Override
+    public float getAveragePutTime() {
+        return putTime.average();
+    }
+
+    @Override
+    public float getAverageRemoveTime() {
+        return removeTime.average();
+    }
+
+    private static class Timing {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        void record(long start) {
+            if (start != NOT_SAMPLED) {
+                nanos.add(System.nanoTime() - start);
+                count.increment();
+            }
+        }
+
+        float average() {
+            final long c = count.sum();
+            return c == 0 ? 0 : nanos.sum() / 1000f / c;
+        }
+
+        void reset() {
+            count.reset();
+            nanos.reset();
+        }
+    }
+}
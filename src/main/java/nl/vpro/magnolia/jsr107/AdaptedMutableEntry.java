@@ -0,0 +1,69 @@
+package nl.vpro.magnolia.jsr107;
+
+import javax.cache.processor.MutableEntry;
+
+/**
+ * The {@link MutableEntry} offered to {@link javax.cache.processor.EntryProcessor}s by {@link AdaptedCache#invoke(Object, javax.cache.processor.EntryProcessor, Object...)}.
+ * It only records what the processor did, {@link AdaptedCache} applies that to the magnolia cache afterwards.
+ *
+ * Like in {@link AdaptedCache} itself, <code>null</code> is an acceptable value.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+class AdaptedMutableEntry<K, V> implements MutableEntry<K, V> {
+
+    enum Operation {
+        NONE,
+        UPDATE,
+        REMOVE
+    }
+
+    private final K key;
+    private V value;
+    private boolean exists;
+    private Operation operation = Operation.NONE;
+
+    AdaptedMutableEntry(K key, V value, boolean exists) {
+        this.key = key;
+        this.value = value;
+        this.exists = exists;
+    }
+
+    @Override
+    public boolean exists() {
+        return exists;
+    }
+
+    @Override
+    public void remove() {
+        value = null;
+        exists = false;
+        operation = Operation.REMOVE;
+    }
+
+    @Override
+    public void setValue(V value) {
+        this.value = value;
+        exists = true;
+        operation = Operation.UPDATE;
+    }
+
+    @Override
+    public K getKey() {
+        return key;
+    }
+
+    @Override
+    public V getValue() {
+        return value;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> clazz) {
+        throw new IllegalArgumentException("Cannot unwrap to " + clazz);
+    }
+
+    Operation getOperation() {
+        return operation;
+    }
+}
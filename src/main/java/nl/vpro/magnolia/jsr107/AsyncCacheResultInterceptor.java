@@ -0,0 +1,237 @@
+package nl.vpro.magnolia.jsr107;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import javax.cache.Cache;
+import javax.cache.annotation.CacheResult;
+import javax.cache.annotation.GeneratedCacheKey;
+import javax.inject.Inject;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.commons.lang3.StringUtils;
+import org.jsr107.ri.annotations.*;
+
+import com.google.inject.matcher.AbstractMatcher;
+import com.google.inject.matcher.Matcher;
+
+/**
+ * Replaces the whole {@link CacheResult} interceptor chain for methods returning a {@link CompletionStage}. Instead of the future itself, the value
+ * it completes with is cached, and hits return an already completed future. Concurrent misses for the same key share the future of the first one.
+ * Exceptions are stored in the exception cache, if there is one, or rethrown for a while if configured with {@link ExceptionBackoff}, like for synchronous methods.
+ *
+ * The magnolia caches are never blocked by this, so no thread needs to wait for the result. Like {@link SingleFlight}, a call in progress is only shared
+ * during {@link MgnlCacheManager#getSingleFlightMaxWait()}. If it didn't complete by then, its callers get a {@link TimeoutException}, and new calls
+ * start over.
+ *
+ * {@link DefaultCacheSettings#refreshAfterSeconds()} and {@link DefaultCacheSettings#staleIfErrorSeconds()} are not supported for these methods, a
+ * warning is logged when they are configured anyway.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+@Slf4j
+class AsyncCacheResultInterceptor extends AbstractCacheResultInterceptor<MethodInvocation> implements MethodInterceptor {
+
+    static final Matcher<Method> RETURNS_COMPLETION_STAGE = new AbstractMatcher<Method>() {
+        @Override
+        public boolean matches(Method method) {
+            return CompletionStage.class.isAssignableFrom(method.getReturnType());
+        }
+
+        @Override
+        public String toString() {
+            return "returns CompletionStage";
+        }
+    };
+
+    /**
+     * The futures of the calls currently in progress, per cache name and key.
+     */
+    private final ConcurrentMap<List<Object>, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * The methods of which the settings were checked already.
+     */
+    private final Set<Method> checked = ConcurrentHashMap.newKeySet();
+
+    private CacheContextSource<MethodInvocation> cacheContextSource;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        final InternalCacheKeyInvocationContext<? extends Annotation> cacheKeyInvocationContext = cacheContextSource.getCacheKeyInvocationContext(invocation);
+        final CacheResultMethodDetails methodDetails = getStaticCacheKeyInvocationContext(cacheKeyInvocationContext, InterceptorType.CACHE_RESULT);
+        final CacheResult cacheResult = methodDetails.getCacheAnnotation();
+        if (checked.add(invocation.getMethod())) {
+            check(invocation.getMethod());
+        }
+        final GeneratedCacheKey cacheKey = methodDetails.getCacheKeyGenerator().generateCacheKey(cacheKeyInvocationContext);
+        final Cache<Object, Object> cache = methodDetails.getCacheResolver().resolveCache(cacheKeyInvocationContext);
+        final Cache<Object, Object> exceptionCache = StringUtils.isBlank(cacheResult.exceptionCacheName()) ? null :
+            methodDetails.getExceptionCacheResolver().resolveCache(cacheKeyInvocationContext);
+
+        final ExceptionBackoff[] backoffs = FailedKeys.backoffs(invocation.getMethod());
+        final FailedKeys<Object> failures = backoffs.length == 0 ? null : FusedCacheResultInterceptor.failures(cache);
+
+        if (! cacheResult.skipGet()) {
+            final Throwable failure = failures == null ? null : failures.get(cacheKey);
+            if (failure != null) {
+                final CompletableFuture<Object> failed = new CompletableFuture<>();
+                failed.completeExceptionally(failure);
+                return failed;
+            }
+            if (exceptionCache != null) {
+                final CacheValue<Object> exception = peek(exceptionCache, cacheKey);
+                if (exception != null && exception.orNull() instanceof Throwable) {
+                    final CompletableFuture<Object> failed = new CompletableFuture<>();
+                    failed.completeExceptionally((Throwable) exception.orNull());
+                    return failed;
+                }
+            }
+            final CacheValue<Object> stored = peek(cache, cacheKey);
+            if (stored != null && ! AdaptedCache.EXCEPTION.equals(stored.orNull())) {
+                return CompletableFuture.completedFuture(ReturnCacheValueUnInterceptor.unwrap(stored.orNull()));
+            }
+        }
+
+        final List<Object> id = Arrays.asList(cache.getName(), cacheKey);
+        final CompletableFuture<Object> mine = new CompletableFuture<>();
+        final CompletableFuture<Object> theirs = inFlight.putIfAbsent(id, mine);
+        if (theirs != null) {
+            log.debug("Joining the call in progress for {}", id);
+            return theirs.thenApply(v -> v);
+        }
+        expire(id, mine, cache);
+        final CompletionStage<Object> stage;
+        try {
+            stage = (CompletionStage<Object>) proceed(invocation);
+        } catch (Throwable t) {
+            completed(id, mine, cacheResult, cacheKey, cache, exceptionCache, backoffs, failures, null, t);
+            throw t;
+        }
+        if (stage == null) {
+            // nothing to wait for, and nothing to cache
+            inFlight.remove(id, mine);
+            mine.complete(null);
+            return null;
+        }
+        stage.whenComplete((value, t) -> completed(id, mine, cacheResult, cacheKey, cache, exceptionCache, backoffs, failures, value, t));
+        return mine.thenApply(v -> v);
+    }
+
+    private void completed(
+        List<Object> id,
+        CompletableFuture<Object> future,
+        CacheResult cacheResult,
+        GeneratedCacheKey cacheKey,
+        Cache<Object, Object> cache,
+        Cache<Object, Object> exceptionCache,
+        ExceptionBackoff[] backoffs,
+        FailedKeys<Object> failures,
+        Object value,
+        Throwable t) {
+        try {
+            if (t == null) {
+                cache.put(cacheKey, value == null ? AdaptedCache.NULL : value);
+            } else {
+                final Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                final ExceptionBackoff backoff = failures == null ? null : FailedKeys.backoff(backoffs, cause);
+                if (backoff != null) {
+                    failures.failed(cacheKey, cause, backoff);
+                } else if (exceptionCache != null && isCached(cacheResult, cause)) {
+                    exceptionCache.put(cacheKey, cause);
+                }
+                t = cause;
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not cache result for {}: {}", id, e.getMessage());
+        } finally {
+            // only after storing, so new calls either find the value in the cache, or join this future
+            inFlight.remove(id, future);
+        }
+        if (t == null) {
+            future.complete(value);
+        } else {
+            future.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * Forgets the call in progress if it didn't complete within the max wait, so that a future which never completes doesn't hang all later calls.
+     */
+    private void expire(List<Object> id, CompletableFuture<Object> future, Cache<Object, Object> cache) {
+        if (! (cache instanceof AdaptedCache) || ! (cache.getCacheManager() instanceof MgnlCacheManager)) {
+            return;
+        }
+        final Duration maxWait = ((AdaptedCache<Object, Object>) cache).getSingleFlightMaxWait();
+        if (maxWait == null) {
+            return;
+        }
+        final ScheduledFuture<?> timeout = ((MgnlCacheManager) cache.getCacheManager()).getScheduler().schedule(() -> {
+            if (inFlight.remove(id, future)) {
+                log.warn("{} did not complete in {}, new calls won't wait for it", id, maxWait);
+                future.completeExceptionally(new TimeoutException("Not completed in " + maxWait));
+            }
+        }, maxWait.toNanos(), TimeUnit.NANOSECONDS);
+        future.whenComplete((v, t) -> timeout.cancel(false));
+    }
+
+    private static void check(Method method) {
+        final CacheSettings settings = CacheSettings.of(method);
+        if (settings.getRefreshAfterSeconds() > 0) {
+            log.warn("{} returns a CompletionStage, its refreshAfterSeconds {} is ignored", method, settings.getRefreshAfterSeconds());
+        }
+        if (settings.getStaleIfErrorSeconds() > 0) {
+            log.warn("{} returns a CompletionStage, its staleIfErrorSeconds {} is ignored", method, settings.getStaleIfErrorSeconds());
+        }
+    }
+
+    /**
+     * Like the reference implementation, considering {@link CacheResult#cachedExceptions()} and {@link CacheResult#nonCachedExceptions()}.
+     */
+    static boolean isCached(CacheResult cacheResult, Throwable t) {
+        for (Class<? extends Throwable> nonCached : cacheResult.nonCachedExceptions()) {
+            if (nonCached.isInstance(t)) {
+                return false;
+            }
+        }
+        if (cacheResult.cachedExceptions().length == 0) {
+            return true;
+        }
+        for (Class<? extends Throwable> cached : cacheResult.cachedExceptions()) {
+            if (cached.isInstance(t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Looks in the cache without blocking it.
+     */
+    @SuppressWarnings("unchecked")
+    private static CacheValue<Object> peek(Cache<Object, Object> cache, Object key) {
+        if (cache instanceof AdaptedCache) {
+            return ((AdaptedCache<Object, Object>) cache).getCacheValue(key);
+        }
+        return cache.containsKey(key) ? CacheValue.of(cache.get(key)) : null;
+    }
+
+    @Override
+    protected Object proceed(MethodInvocation invocation) throws Throwable {
+        return invocation.proceed();
+    }
+
+    @Inject
+    public void setCacheContextSource(CacheContextSource<MethodInvocation> cacheContextSource) {
+        this.cacheContextSource = cacheContextSource;
+    }
+}
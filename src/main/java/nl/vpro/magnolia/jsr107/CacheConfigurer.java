@@ -5,6 +5,8 @@ import info.magnolia.objectfactory.configuration.ComponentConfigurer;
 import info.magnolia.objectfactory.configuration.ComponentProviderConfiguration;
 import lombok.extern.slf4j.Slf4j;
 
+import java.lang.reflect.Method;
+
 import javax.cache.CacheManager;
 import javax.cache.annotation.*;
 
@@ -15,6 +17,7 @@ import org.jsr107.ri.annotations.guice.*;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.TypeLiteral;
+import com.google.inject.matcher.Matcher;
 import com.google.inject.matcher.Matchers;
 
 /**
@@ -24,6 +27,21 @@ import com.google.inject.matcher.Matchers;
 @Slf4j
 public class CacheConfigurer extends AbstractModule implements ComponentConfigurer {
 
+    private final boolean fused;
+
+    public CacheConfigurer() {
+        this(true);
+    }
+
+    /**
+     * @param fused Whether {@link CacheResult} is implemented by one {@link FusedCacheResultInterceptor}, or by the chain of interceptors as before 1.15.
+     *              The chain doesn't support {@link ExceptionBackoff} and {@link DefaultCacheSettings#staleIfErrorSeconds()}, it logs a warning for
+     *              methods using them.
+     * @since 1.15
+     */
+    public CacheConfigurer(boolean fused) {
+        this.fused = fused;
+    }
 
     @Override
     protected void configure() {
@@ -43,21 +61,40 @@ public class CacheConfigurer extends AbstractModule implements ComponentConfigur
         }
 
         {
-            ReturnCacheValueInterceptor cacheValueInterceptor = new ReturnCacheValueInterceptor();
-            ReturnCacheValueUnInterceptor cacheValueUnInterceptor = new ReturnCacheValueUnInterceptor();
-            requestInjection(cacheValueInterceptor);
-            CacheResultInterceptor cacheResultInterceptor = new NonBlockingCacheResultInterceptor();
-            requestInjection(cacheResultInterceptor);
-            bindInterceptor(Matchers.annotatedWith(CacheResult.class), Matchers.any(),
-                cacheValueUnInterceptor,
-                cacheResultInterceptor
-                ,cacheValueInterceptor
-            );
-            bindInterceptor(Matchers.any(), Matchers.annotatedWith(CacheResult.class),
-                cacheValueUnInterceptor,
-                cacheResultInterceptor
-                , cacheValueInterceptor
-            );
+            final Matcher<Method> sync = Matchers.not(AsyncCacheResultInterceptor.RETURNS_COMPLETION_STAGE);
+            if (fused) {
+                // refreshes ahead itself
+                FusedCacheResultInterceptor cacheResultInterceptor = new FusedCacheResultInterceptor();
+                requestInjection(cacheResultInterceptor);
+                bindInterceptor(Matchers.annotatedWith(CacheResult.class), sync, cacheResultInterceptor);
+                bindInterceptor(Matchers.any(), sync.and(Matchers.annotatedWith(CacheResult.class)), cacheResultInterceptor);
+            } else {
+                RefreshAheadInterceptor refreshAheadInterceptor = new RefreshAheadInterceptor();
+                requestInjection(refreshAheadInterceptor);
+                ReturnCacheValueInterceptor cacheValueInterceptor = new ReturnCacheValueInterceptor();
+                ReturnCacheValueUnInterceptor cacheValueUnInterceptor = new ReturnCacheValueUnInterceptor();
+                requestInjection(cacheValueInterceptor);
+                CacheResultInterceptor cacheResultInterceptor = new NonBlockingCacheResultInterceptor();
+                requestInjection(cacheResultInterceptor);
+                // interceptors are applied in the order in which they are bound, the refresh ahead interceptor must be before the cache result interceptor
+                bindInterceptor(Matchers.annotatedWith(CacheResult.class), sync, cacheValueUnInterceptor);
+                bindInterceptor(Matchers.any(), sync.and(Matchers.annotatedWith(CacheResult.class)), cacheValueUnInterceptor);
+                bindInterceptor(Matchers.any(), RefreshAheadInterceptor.MATCHER.and(sync), refreshAheadInterceptor);
+                bindInterceptor(Matchers.annotatedWith(CacheResult.class), sync,
+                    cacheResultInterceptor
+                    ,cacheValueInterceptor
+                );
+                bindInterceptor(Matchers.any(), sync.and(Matchers.annotatedWith(CacheResult.class)),
+                    cacheResultInterceptor
+                    , cacheValueInterceptor
+                );
+            }
+        }
+        {
+            AsyncCacheResultInterceptor asyncCacheResultInterceptor = new AsyncCacheResultInterceptor();
+            requestInjection(asyncCacheResultInterceptor);
+            bindInterceptor(Matchers.annotatedWith(CacheResult.class), AsyncCacheResultInterceptor.RETURNS_COMPLETION_STAGE, asyncCacheResultInterceptor);
+            bindInterceptor(Matchers.any(), AsyncCacheResultInterceptor.RETURNS_COMPLETION_STAGE.and(Matchers.annotatedWith(CacheResult.class)), asyncCacheResultInterceptor);
         }
 
         {
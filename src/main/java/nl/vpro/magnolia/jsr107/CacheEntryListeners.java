@@ -0,0 +1,150 @@
+package nl.vpro.magnolia.jsr107;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.cache.Cache;
+import javax.cache.configuration.CacheEntryListenerConfiguration;
+import javax.cache.event.*;
+
+/**
+ * The {@link CacheEntryListener}s registered on an {@link AdaptedCache}.
+ *
+ * Synchronous listeners are called on the thread that changed the cache. The events for asynchronous listeners are put on a bounded queue, which is
+ * drained by one task at a time on the executor, so they arrive in the order in which they were fired. If the queue is full, events are dropped (and logged),
+ * rather than making the writing thread wait.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+@Slf4j
+class CacheEntryListeners<K, V> {
+
+    static final int QUEUE_CAPACITY = 10_000;
+
+    private final Cache<K, V> cache;
+    private final Executor executor;
+    private final List<Registration<K, V>> registrations = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    CacheEntryListeners(Cache<K, V> cache, Executor executor) {
+        this.cache = cache;
+        this.executor = executor;
+    }
+
+    boolean isEmpty() {
+        return registrations.isEmpty();
+    }
+
+    synchronized void register(CacheEntryListenerConfiguration<K, V> configuration) {
+        for (Registration<K, V> registration : registrations) {
+            if (registration.configuration.equals(configuration)) {
+                throw new IllegalArgumentException("Already registered " + configuration);
+            }
+        }
+        registrations.add(new Registration<>(configuration));
+    }
+
+    synchronized void deregister(CacheEntryListenerConfiguration<K, V> configuration) {
+        registrations.removeIf(r -> r.configuration.equals(configuration));
+    }
+
+    void fire(EventType type, K key, V oldValue, V value) {
+        for (Registration<K, V> registration : registrations) {
+            if (! registration.accepts(type)) {
+                continue;
+            }
+            final CacheEntryEvent<K, V> event = registration.configuration.isOldValueRequired() ?
+                new AdaptedCacheEntryEvent<>(cache, type, key, value, oldValue, type == EventType.UPDATED) :
+                new AdaptedCacheEntryEvent<>(cache, type, key, value, null, false);
+            if (registration.filter != null && ! registration.filter.evaluate(event)) {
+                continue;
+            }
+            if (registration.configuration.isSynchronous()) {
+                try {
+                    registration.dispatch(event);
+                } catch (CacheEntryListenerException clee) {
+                    throw clee;
+                } catch (RuntimeException e) {
+                    throw new CacheEntryListenerException(e);
+                }
+            } else if (queue.offer(() -> registration.dispatch(event))) {
+                drain();
+            } else {
+                log.warn("Event queue of {} is full, dropped {}", cache.getName(), event);
+            }
+        }
+    }
+
+    private void drain() {
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                try {
+                    Runnable dispatch;
+                    while ((dispatch = queue.poll()) != null) {
+                        try {
+                            dispatch.run();
+                        } catch (RuntimeException e) {
+                            log.warn("Listener on {} failed: {}", cache.getName(), e.getMessage(), e);
+                        }
+                    }
+                } finally {
+                    draining.set(false);
+                }
+                if (! queue.isEmpty()) {
+                    drain();
+                }
+            });
+        }
+    }
+
+    private static class Registration<K, V> {
+        private final CacheEntryListenerConfiguration<K, V> configuration;
+        private final CacheEntryListener<? super K, ? super V> listener;
+        private final CacheEntryEventFilter<? super K, ? super V> filter;
+
+        private Registration(CacheEntryListenerConfiguration<K, V> configuration) {
+            this.configuration = configuration;
+            this.listener = configuration.getCacheEntryListenerFactory().create();
+            this.filter = configuration.getCacheEntryEventFilterFactory() == null ? null : configuration.getCacheEntryEventFilterFactory().create();
+        }
+
+        private boolean accepts(EventType type) {
+            switch (type) {
+                case CREATED:
+                    return listener instanceof CacheEntryCreatedListener;
+                case UPDATED:
+                    return listener instanceof CacheEntryUpdatedListener;
+                case REMOVED:
+                    return listener instanceof CacheEntryRemovedListener;
+                case EXPIRED:
+                    return listener instanceof CacheEntryExpiredListener;
+                default:
+                    return false;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void dispatch(CacheEntryEvent<K, V> event) {
+            final Iterable events = Collections.singletonList(event);
+            switch (event.getEventType()) {
+                case CREATED:
+                    ((CacheEntryCreatedListener<K, V>) listener).onCreated(events);
+                    break;
+                case UPDATED:
+                    ((CacheEntryUpdatedListener<K, V>) listener).onUpdated(events);
+                    break;
+                case REMOVED:
+                    ((CacheEntryRemovedListener<K, V>) listener).onRemoved(events);
+                    break;
+                case EXPIRED:
+                    ((CacheEntryExpiredListener<K, V>) listener).onExpired(events);
+                    break;
+            }
+        }
+    }
+}
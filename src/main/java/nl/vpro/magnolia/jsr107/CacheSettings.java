@@ -6,12 +6,15 @@ import lombok.Builder;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ClassUtils;
+import org.ehcache.config.units.MemoryUnit;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.time.Duration;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * See https://documentation.magnolia-cms.com/display/DOCS/Ehcache+module
@@ -24,6 +27,19 @@ import java.util.Objects;
 @Slf4j
 public class CacheSettings {
 
+    private static final Map<Method, CacheSettings> FOR_METHOD = new ConcurrentHashMap<>();
+
+    /**
+     * The settings for a method with a {@link javax.cache.annotation.CacheResult} annotation, as defined by its {@link DefaultCacheSettings} or
+     * {@link Defaults} annotation. This is used for the settings which are applied at runtime, rather than stored in magnolia's configuration.
+     */
+    public static CacheSettings of(Method method) {
+        return FOR_METHOD.computeIfAbsent(method, m -> {
+            Defaults defaults = m.getAnnotation(Defaults.class);
+            return of(defaults == null ? m.getAnnotation(DefaultCacheSettings.class) : defaults.cacheSettings());
+        });
+    }
+
     public static CacheSettings of(DefaultCacheSettings defaults) {
         CacheSettings.Builder builder = new CacheSettings.Builder();
         invoke(builder, defaults);
@@ -89,6 +105,19 @@ public class CacheSettings {
             return timeToLiveSeconds(duration == null ? null : (int) duration.toMillis() / 1000);
         }
 
+        public CacheSettings.Builder refreshAfter(Duration duration) {
+            return refreshAfterSeconds(duration == null ? 0 : (int) (duration.toMillis() / 1000));
+        }
+
+        public CacheSettings.Builder maxSizeInMemory(int size, MemoryUnit unit) {
+            maxSizeInMemory(size);
+            return sizeInMemoryUnit(unit);
+        }
+
+        public CacheSettings.Builder nearCacheTimeToLive(Duration duration) {
+            return nearCacheTimeToLiveSeconds((int) (duration.toMillis() / 1000));
+        }
+
         @Deprecated
         public CacheSettings.Builder diskExpiryThreadInterval(Duration duration) {
             return diskExpiryThreadIntervalSeconds(duration == null ? null : (int) duration.toMillis() / 1000);
@@ -159,6 +188,13 @@ public class CacheSettings {
      */
     int maxElementsInMemory;
 
+    /**
+     * Sets the maximum size of the heap tier, in {@link #sizeInMemoryUnit}. 0 means that the heap tier is sized by {@link #maxElementsInMemory} instead.
+     */
+    int maxSizeInMemory;
+
+    MemoryUnit sizeInMemoryUnit;
+
     /**
      * Sets maximum number of objects maintained in the DiskStore. The default value of zero means unlimited.
      */
@@ -166,6 +202,16 @@ public class CacheSettings {
     int maxElementsOnDisk;
 
     int maxSizeOnDiskMB;
+
+    /**
+     * Size of the off-heap tier (between heap and disk), in MB. 0 means no off-heap tier.
+     */
+    int maxOffHeapMB;
+
+    /**
+     * Whether to configure the {@link CompactSerializer} for keys and values.
+     */
+    boolean compactSerialization;
     /**
      * Policy is enforced upon reaching the maxElementsInMemory limit. Available policies:
      Least Recently Used (specified as LRU)
@@ -199,9 +245,35 @@ public class CacheSettings {
     @Deprecated
     Integer diskSpoolBufferSizeMB;
     /**
-     * Instructs Ehcache to wait the specified time in milliseconds before attempting to cache the request. Create the blockingTiemout property in the tree at the same level where the EhCacheFactory class is defined, not inside the defaultCacheConfiguration node.
-     *
-     * TODO: So this is created at the wrong level now. But this is a bit silly, I'd want to set it <em>per cache</em>
+     * The time in milliseconds a thread waits for another thread calculating the same entry. Magnolia only supports this for all caches together (on the level of the
+     * cache factory), so this is stored in the configuration of the jsr107 module instead, and applied by {@link MgnlCacheManager#setBlockingTimeout(String, Duration)}.
+     * 0 means no waiting, a negative value (the default) leaves it to magnolia. A miss that is not followed by a put blocks the other threads missing the
+     * same key for the full timeout.
      */
     int blockingTimeout;
+
+    /**
+     * Entries older than this are returned, but recalculated in the background. 0 means that this is not done. This is not stored in magnolia's configuration,
+     * but applied by the {@link RefreshAheadInterceptor}.
+     */
+    int refreshAfterSeconds;
+
+    /**
+     * The number of entries to keep deserialized on the heap, in front of magnolia's cache. 0 means no near cache. Like the {@link #blockingTimeout} this is applied by
+     * {@link MgnlCacheManager}.
+     */
+    int nearCacheSize;
+
+    int nearCacheTimeToLiveSeconds;
+
+    /**
+     * The size in bytes from which serialized values are compressed. 0 means no compression. Applied by {@link MgnlCacheManager#setCompressionThreshold(String, int)}.
+     */
+    int compressionThreshold;
+
+    /**
+     * How long values may be returned after their {@link #timeToLiveSeconds} if calculating them again fails. This is added to the time to live in
+     * magnolia's configuration, and applied by the {@link FusedCacheResultInterceptor}.
+     */
+    int staleIfErrorSeconds;
 }
@@ -4,6 +4,7 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.io.*;
 import java.util.Optional;
+import java.util.zip.Deflater;
 
 /**
  * Makes it possible to store null's in magnolia caches. Also makes it possible to store Optional's (while remaining Serializable)
@@ -13,14 +14,59 @@ import java.util.Optional;
 @Slf4j
 class CacheValue<V> implements Serializable {
 
+    /**
+     * As it was calculated before {@link #created} was added, so that values already on disk can still be read.
+     */
+    private static final long serialVersionUID = 5190785666333356197L;
+
     static <V> CacheValue<V> of(V value) {
         return new CacheValue<>(value);
     }
 
     private V value;
 
+    /**
+     * When this value was created. Used for {@link DefaultCacheSettings#refreshAfterSeconds()}.
+     */
+    private long created;
+
+    /**
+     * The {@link ValueSerializers} registration to use for {@link #value} when this is stored by the {@link CompactSerializer}, if registered per cache.
+     */
+    private transient String serializer;
+
+    /**
+     * If bigger than 0, {@link #value} is compressed when it is serialized to at least this many bytes, see {@link DefaultCacheSettings#compressionThreshold()}.
+     */
+    private transient int compressionThreshold;
+
     CacheValue(V value) {
+        this(value, System.currentTimeMillis());
+    }
+
+    CacheValue(V value, long created) {
         this.value = value;
+        this.created = created;
+    }
+
+    long getCreated() {
+        return created;
+    }
+
+    String getSerializer() {
+        return serializer;
+    }
+
+    void setSerializer(String serializer) {
+        this.serializer = serializer;
+    }
+
+    int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
     }
 
 
@@ -32,8 +78,39 @@ class CacheValue<V> implements Serializable {
         return toOptional().orElse(null);
     }
 
-    @SuppressWarnings("unchecked")
     private void writeObject(ObjectOutputStream out) throws IOException {
+        if (compressionThreshold <= 0 || value == null) {
+            writeValue(out);
+        } else {
+            writeSerialized(out);
+        }
+        out.writeLong(created);
+    }
+
+    /**
+     * Serializes the value once, to see whether it is big enough to compress. Compressed values are written as {@link Deflater} (as a marker, like
+     * {@link Optional}), the uncompressed length and the compressed bytes. Otherwise the serialized bytes are written as they are, after <code>byte[].class</code>
+     * and their length.
+     */
+    private void writeSerialized(ObjectOutputStream out) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+            writeValue(objects);
+        }
+        final byte[] compressed = bytes.size() < compressionThreshold ? null : Compression.deflate(bytes.toByteArray(), bytes.size());
+        if (compressed != null) {
+            out.writeObject(Deflater.class);
+            out.writeInt(bytes.size());
+            out.writeObject(compressed);
+        } else {
+            out.writeObject(byte[].class);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeValue(ObjectOutputStream out) throws IOException {
         if (value instanceof Optional) {
             out.writeObject(Optional.class);
             out.writeObject(((Optional) value).orElse(null));
@@ -49,16 +126,41 @@ class CacheValue<V> implements Serializable {
         }
     }
 
-    @SuppressWarnings("unchecked")
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         Object i = in.readObject();
+        if (Deflater.class.equals(i)) {
+            final int length = in.readInt();
+            final byte[] compressed = (byte[]) in.readObject();
+            value = readSerialized(Compression.inflate(compressed, length));
+        } else if (byte[].class.equals(i)) {
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            value = readSerialized(bytes);
+        } else {
+            value = readValue(in, i);
+        }
+        try {
+            created = in.readLong();
+        } catch (EOFException | OptionalDataException e) {
+            // serialized before the creation time was stored, so it's old.
+            created = 0;
+        }
+    }
+
+    private V readSerialized(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return readValue(objects, objects.readObject());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V readValue(ObjectInputStream in, Object i) throws IOException, ClassNotFoundException {
         if (Optional.class.equals(i)) {
             Object optionalValue = in.readObject();
-            value = (V) Optional.ofNullable(optionalValue);
+            return (V) Optional.ofNullable(optionalValue);
         } else {
-            value = (V) i;
+            return (V) i;
         }
-
     }
 
     @Override
@@ -0,0 +1,383 @@
+package nl.vpro.magnolia.jsr107;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.Optional;
+
+import org.ehcache.spi.serialization.Serializer;
+import org.ehcache.spi.serialization.SerializerException;
+
+/**
+ * An ehcache3 {@link Serializer} for the keys and values as stored by this module, i.e. {@link SerializableGeneratedCacheKey}s and {@link CacheValue}s.
+ * Instead of java serialization, these are written in a compact tagged format, in which <code>null</code>, {@link Optional}s, the markers of
+ * {@link AdaptedCache}, {@link String}s and boxed primitives need no class descriptors. Values for which a {@link ValueSerializer} is registered in
+ * {@link ValueSerializers} are written by that. Other objects are still written with java serialization. Values bigger than their
+ * {@link DefaultCacheSettings#compressionThreshold()} are deflated.
+ *
+ * It can be configured as key and value serializer of a cache with {@link DefaultCacheSettings#compactSerialization()}. Values which are already stored on disk
+ * with java serialization can't be read by it.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+@Slf4j
+public class CompactSerializer implements Serializer<Object> {
+
+    // tags of the stored objects
+    static final byte JAVA = 0;
+    static final byte CACHE_VALUE = 1;
+    static final byte KEY = 2;
+
+    // tags of the values and key parameters
+    static final byte NULL = 0;
+    static final byte STRING = 1;
+    static final byte INTEGER = 2;
+    static final byte LONG = 3;
+    static final byte TRUE = 4;
+    static final byte FALSE = 5;
+    static final byte DOUBLE = 6;
+    static final byte EMPTY = 7;
+    static final byte OPTIONAL = 8;
+    static final byte NULL_MARKER = 9;
+    static final byte EXCEPTION_MARKER = 10;
+    static final byte SERIALIZED = 11;
+    static final byte REGISTERED = 12;
+    static final byte COMPRESSED = 13;
+
+    private final ClassLoader classLoader;
+
+    /**
+     * The constructor ehcache needs.
+     */
+    public CompactSerializer(ClassLoader classLoader) {
+        this.classLoader = classLoader == null ? CompactSerializer.class.getClassLoader() : classLoader;
+    }
+
+    @Override
+    public ByteBuffer serialize(Object object) throws SerializerException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (object instanceof CacheValue) {
+                final CacheValue<?> cacheValue = (CacheValue<?>) object;
+                out.writeByte(CACHE_VALUE);
+                out.writeLong(cacheValue.getCreated());
+                if (cacheValue.getCompressionThreshold() > 0) {
+                    final ByteArrayOutputStream element = new ByteArrayOutputStream();
+                    writeValue(new DataOutputStream(element), cacheValue);
+                    writeCompressed(out, element, cacheValue.getCompressionThreshold());
+                } else {
+                    writeValue(out, cacheValue);
+                }
+            } else if (object instanceof SerializableGeneratedCacheKey) {
+                final Serializable[] parameters = ((SerializableGeneratedCacheKey) object).getParameters();
+                out.writeByte(KEY);
+                out.writeInt(parameters.length);
+                for (Serializable parameter : parameters) {
+                    writeElement(out, parameter);
+                }
+            } else {
+                out.writeByte(JAVA);
+                writeJava(out, object);
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new SerializerException(e);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    @Override
+    public Object read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+        try {
+            final byte tag = binary.get();
+            switch (tag) {
+                case CACHE_VALUE:
+                    final long created = binary.getLong();
+                    return readValue(binary, created);
+                case KEY:
+                    final Serializable[] parameters = new Serializable[binary.getInt()];
+                    for (int i = 0; i < parameters.length; i++) {
+                        parameters[i] = (Serializable) readElement(binary);
+                    }
+                    return SerializableGeneratedCacheKey.of(parameters);
+                case JAVA:
+                    return readJava(binary);
+                default:
+                    throw new SerializerException("Unknown tag " + tag);
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new SerializerException(e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+        return Objects.equals(object, read(binary));
+    }
+
+    /**
+     * The serializer registered for the cache gets the value, or the contents of an {@link Optional} (as returned by many cached methods). Values it
+     * can't handle are written like any other.
+     */
+    private void writeValue(DataOutputStream out, CacheValue<?> cacheValue) throws IOException {
+        final Object value = cacheValue.orNull();
+        if (cacheValue.getSerializer() == null || value == null || AdaptedCache.NULL.equals(value) || AdaptedCache.EXCEPTION.equals(value)) {
+            writeElement(out, value);
+        } else if (value instanceof Optional) {
+            final Optional<?> optional = (Optional<?>) value;
+            if (optional.isPresent()) {
+                out.writeByte(OPTIONAL);
+                writeForCache(out, cacheValue.getSerializer(), optional.get());
+            } else {
+                out.writeByte(EMPTY);
+            }
+        } else {
+            writeForCache(out, cacheValue.getSerializer(), value);
+        }
+    }
+
+    private void writeForCache(DataOutputStream out, String id, Object value) throws IOException {
+        try {
+            writeRegistered(out, id, value);
+        } catch (ClassCastException cce) {
+            // nothing was written yet
+            log.debug("{} can't write {}: {}", id, value.getClass(), cce.getMessage());
+            writeElement(out, value);
+        }
+    }
+
+    private CacheValue<Object> readValue(ByteBuffer binary, long created) throws IOException, ClassNotFoundException {
+        switch (binary.get(binary.position())) {
+            case COMPRESSED:
+                binary.get();
+                final int length = binary.getInt();
+                final byte[] compressed = new byte[binary.getInt()];
+                binary.get(compressed);
+                return readValue(ByteBuffer.wrap(Compression.inflate(compressed, length)), created);
+            case REGISTERED:
+                binary.get();
+                final String id = readString(binary);
+                return registered(id, readRegistered(id, binary), created);
+            case OPTIONAL:
+                if (binary.get(binary.position() + 1) == REGISTERED) {
+                    binary.get();
+                    binary.get();
+                    final String optionalId = readString(binary);
+                    return registered(optionalId, Optional.of(readRegistered(optionalId, binary)), created);
+                }
+                return new CacheValue<>(readElement(binary), created);
+            default:
+                return new CacheValue<>(readElement(binary), created);
+        }
+    }
+
+    /**
+     * A value written by a registered serializer, which remembers a serializer of its cache, so it is written by that again.
+     */
+    private CacheValue<Object> registered(String id, Object value, long created) {
+        final CacheValue<Object> cacheValue = new CacheValue<>(value, created);
+        if (id.startsWith(ValueSerializers.CACHE_PREFIX)) {
+            cacheValue.setSerializer(id);
+        }
+        return cacheValue;
+    }
+
+    /**
+     * Writes the element deflated if it is at least as big as the threshold, and that makes it smaller.
+     */
+    private void writeCompressed(DataOutputStream out, ByteArrayOutputStream element, int threshold) throws IOException {
+        if (element.size() >= threshold) {
+            final byte[] compressed = Compression.deflate(element.toByteArray(), element.size());
+            if (compressed != null) {
+                out.writeByte(COMPRESSED);
+                out.writeInt(element.size());
+                out.writeInt(compressed.length);
+                out.write(compressed);
+                return;
+            }
+        }
+        element.writeTo(out);
+    }
+
+    private void writeElement(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            if (AdaptedCache.NULL.equals(value)) {
+                out.writeByte(NULL_MARKER);
+            } else if (AdaptedCache.EXCEPTION.equals(value)) {
+                out.writeByte(EXCEPTION_MARKER);
+            } else {
+                out.writeByte(STRING);
+                writeString(out, (String) value);
+            }
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Optional) {
+            final Optional<?> optional = (Optional<?>) value;
+            if (optional.isPresent()) {
+                out.writeByte(OPTIONAL);
+                writeElement(out, optional.get());
+            } else {
+                out.writeByte(EMPTY);
+            }
+        } else if (ValueSerializers.forValue(value) != null) {
+            writeRegistered(out, ValueSerializers.forValue(value), value);
+        } else {
+            final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            writeJava(new DataOutputStream(serialized), value);
+            out.writeByte(SERIALIZED);
+            out.writeInt(serialized.size());
+            serialized.writeTo(out);
+        }
+    }
+
+    private Object readElement(ByteBuffer binary) throws IOException, ClassNotFoundException {
+        final byte tag = binary.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(binary);
+            case INTEGER:
+                return binary.getInt();
+            case LONG:
+                return binary.getLong();
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case DOUBLE:
+                return binary.getDouble();
+            case EMPTY:
+                return Optional.empty();
+            case OPTIONAL:
+                return Optional.of(readElement(binary));
+            case NULL_MARKER:
+                return AdaptedCache.NULL;
+            case EXCEPTION_MARKER:
+                return AdaptedCache.EXCEPTION;
+            case SERIALIZED:
+                final int length = binary.getInt();
+                final ByteBuffer serialized = binary.slice();
+                serialized.limit(length);
+                binary.position(binary.position() + length);
+                return readJava(serialized);
+            case REGISTERED:
+                return readRegistered(readString(binary), binary);
+            default:
+                throw new SerializerException("Unknown tag " + tag);
+        }
+    }
+
+    private void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private String readString(ByteBuffer binary) {
+        final byte[] utf8 = new byte[binary.getInt()];
+        binary.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private void writeRegistered(DataOutputStream out, String id, Object value) throws IOException {
+        final ValueSerializer<Object> serializer = ValueSerializers.get(id);
+        if (serializer == null) {
+            throw new SerializerException("No value serializer registered for " + id);
+        }
+        final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        serializer.write(value, new DataOutputStream(serialized));
+        out.writeByte(REGISTERED);
+        writeString(out, id);
+        out.writeInt(serialized.size());
+        serialized.writeTo(out);
+    }
+
+    private Object readRegistered(String id, ByteBuffer binary) throws IOException {
+        final ValueSerializer<Object> serializer = ValueSerializers.get(id);
+        if (serializer == null) {
+            throw new SerializerException("No value serializer registered for " + id);
+        }
+        final int length = binary.getInt();
+        final ByteBuffer serialized = binary.slice();
+        serialized.limit(length);
+        binary.position(binary.position() + length);
+        return serializer.read(new DataInputStream(new ByteBufferInputStream(serialized)));
+    }
+
+    /**
+     * Java serialization, replacing exceptions which can't be serialized like {@link CacheValue} does.
+     */
+    private void writeJava(DataOutputStream out, Object value) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+            objects.writeObject(value);
+        } catch (NotSerializableException nse) {
+            if (! (value instanceof Throwable)) {
+                throw nse;
+            }
+            log.warn(nse.getClass() + " " + nse.getMessage());
+            bytes.reset();
+            try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+                objects.writeObject(new SerializableException(nse.getMessage()));
+            }
+        }
+        bytes.writeTo(out);
+    }
+
+    private Object readJava(ByteBuffer binary) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteBufferInputStream(binary)) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                try {
+                    return Class.forName(desc.getName(), false, classLoader);
+                } catch (ClassNotFoundException cnfe) {
+                    return super.resolveClass(desc);
+                }
+            }
+        }) {
+            return in.readObject();
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (! buffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
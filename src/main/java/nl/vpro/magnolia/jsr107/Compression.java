@@ -0,0 +1,63 @@
+package nl.vpro.magnolia.jsr107;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates serialized {@link CacheValue}s which are bigger than their {@link CacheValue#getCompressionThreshold()}. This uses the fastest compression level,
+ * because it happens on every write to an off-heap or disk tier.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+class Compression {
+
+    private Compression() {
+    }
+
+    /**
+     * @return The compressed bytes, or <code>null</code> if that didn't make them smaller.
+     */
+    static byte[] deflate(byte[] bytes, int length) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes, 0, length);
+            deflater.finish();
+            final byte[] buffer = new byte[length - 1];
+            int size = 0;
+            while (! deflater.finished() && size < buffer.length) {
+                size += deflater.deflate(buffer, size, buffer.length - size);
+            }
+            if (! deflater.finished()) {
+                return null;
+            }
+            final byte[] result = new byte[size];
+            System.arraycopy(buffer, 0, result, 0, size);
+            return result;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] inflate(byte[] compressed, int length) throws IOException {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            final byte[] result = new byte[length];
+            int size = 0;
+            while (size < length) {
+                final int inflated = inflater.inflate(result, size, length - size);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Compressed value is " + size + " bytes rather than " + length);
+                }
+                size += inflated;
+            }
+            return result;
+        } catch (DataFormatException dfe) {
+            throw new IOException(dfe);
+        } finally {
+            inflater.end();
+        }
+    }
+}
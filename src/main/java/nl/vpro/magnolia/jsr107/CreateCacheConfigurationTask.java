@@ -78,13 +78,35 @@ public class CreateCacheConfigurationTask extends AbstractRepositoryTask {
                 node.setProperty("class", EhCache3ConfigurationBuilder.class.getName());
                 node.setProperty("keyType", Serializable.class.getName());
                 node.setProperty("valueType", Serializable.class.getName());
+                for (CacheSettings settings : cacheSettings) {
+                    if (settings.isCompactSerialization()) {
+                        node.setProperty("keySerializer", CompactSerializer.class.getName());
+                        node.setProperty("valueSerializer", CompactSerializer.class.getName());
+                    } else {
+                        if (node.hasProperty("keySerializer")) {
+                            node.getProperty("keySerializer").remove();
+                        }
+                        if (node.hasProperty("valueSerializer")) {
+                            node.getProperty("valueSerializer").remove();
+                        }
+                    }
+                }
 
                 // expiry
                 Node expiry = NodeUtil.createPath(node, "expiry", NodeTypes.ContentNode.NAME);
                 expiry.setProperty("class", EhCache3Expiry.class.getName());
                 for (CacheSettings settings : cacheSettings) {
                     if (!settings.isEternal() && settings.getTimeToLiveSeconds() != null) {
-                        expiry.setProperty("create", Long.valueOf(settings.getTimeToLiveSeconds()));
+                        // stale values are kept longer, the adapted cache only gives them to the interceptor after the time to live, see AdaptedCache#setStaleAfter
+                        expiry.setProperty("create", Long.valueOf(settings.getTimeToLiveSeconds() + settings.getStaleIfErrorSeconds()));
+                    }
+                }
+
+                // blocking timeout, see JSR107Module
+                for (CacheSettings settings : cacheSettings) {
+                    if (settings.getBlockingTimeout() >= 0) {
+                        Node blockingTimeouts = NodeUtil.createPath(node.getSession().getRootNode(), CreateConfigurationTasks.BLOCKING_TIMEOUTS_PATH.substring(1), NodeTypes.ContentNode.NAME);
+                        blockingTimeouts.setProperty(nodeName, (long) settings.getBlockingTimeout());
                     }
                 }
 
@@ -100,8 +122,27 @@ public class CreateCacheConfigurationTask extends AbstractRepositoryTask {
                     final Node heap = NodeUtil.createPath(resourcePools, "heap", NodeTypes.ContentNode.NAME);
                     heap.setProperty("class", Ehcache3ResourcePoolBuilder.class.getName());
                     heap.setProperty("resourceType", ResourceType.Core.HEAP.name());
-                    heap.setProperty("resourceUnit", EntryUnit.ENTRIES.name());
-                    heap.setProperty("size", (long) settings.getMaxElementsInMemory());
+                    if (settings.getMaxSizeInMemory() > 0) {
+                        heap.setProperty("resourceUnit", settings.getSizeInMemoryUnit().name());
+                        heap.setProperty("size", (long) settings.getMaxSizeInMemory());
+                        if (settings.getMaxOffHeapMB() > 0 && settings.getSizeInMemoryUnit().toBytes(settings.getMaxSizeInMemory()) >= MemoryUnit.MB.toBytes(settings.getMaxOffHeapMB())) {
+                            log.warn("Heap tier of {} ({} {}) is not smaller than its off-heap tier ({} MB)", nodeName, settings.getMaxSizeInMemory(), settings.getSizeInMemoryUnit(), settings.getMaxOffHeapMB());
+                        }
+                    } else {
+                        heap.setProperty("resourceUnit", EntryUnit.ENTRIES.name());
+                        heap.setProperty("size", (long) settings.getMaxElementsInMemory());
+                    }
+
+                    // resourcePoolsBuilder/pools/offheap
+                    if (settings.getMaxOffHeapMB() > 0) {
+                        final Node offheap = NodeUtil.createPath(resourcePools, "offheap", NodeTypes.ContentNode.NAME);
+                        offheap.setProperty("class", Ehcache3ResourcePoolBuilder.class.getName());
+                        offheap.setProperty("resourceType", ResourceType.Core.OFFHEAP.name());
+                        offheap.setProperty("resourceUnit", MemoryUnit.MB.name());
+                        offheap.setProperty("size", (long) settings.getMaxOffHeapMB());
+                    } else if (resourcePools.hasNode("offheap")) {
+                        resourcePools.getNode("offheap").remove();
+                    }
 
                     // resourcePoolsBuilder/pools/disk
                     if (settings.isOverflowToDisk() && (settings.getMaxSizeOnDiskMB() > 0 || settings.getMaxElementsOnDisk() > 0)) {
@@ -119,6 +160,10 @@ public class CreateCacheConfigurationTask extends AbstractRepositoryTask {
                                 size = settings.getMaxElementsOnDisk() / 10000L;
                             }
                         }
+                        if (settings.getMaxOffHeapMB() > 0 && size <= settings.getMaxOffHeapMB()) {
+                            // ehcache refuses tiers which are not bigger than the one above
+                            log.warn("Disk tier of {} ({} MB) is not bigger than its off-heap tier ({} MB)", nodeName, size, settings.getMaxOffHeapMB());
+                        }
                         disk.setProperty("size", size);
                     }
                 }
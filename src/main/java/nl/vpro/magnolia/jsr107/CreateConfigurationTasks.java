@@ -26,6 +26,11 @@ public class CreateConfigurationTasks {
 
     static final String PATH = "/modules/cache/config/cacheFactory/caches";
 
+    /**
+     * Magnolia has no per cache blocking timeout, so these are stored in the configuration of this module, and applied by {@link JSR107Module}.
+     */
+    static final String BLOCKING_TIMEOUTS_PATH = "/modules/jsr107/config/blockingTimeouts";
+
     /**
      * Generates tasks to create (default) configuration for the caches provided by a list of beans.
      * The values used are the ones in the annotation {@link DefaultCacheSettings}. You can set this annotation on your methods to provide different defaults.
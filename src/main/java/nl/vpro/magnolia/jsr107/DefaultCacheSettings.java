@@ -5,6 +5,10 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import javax.cache.annotation.CacheResult;
+
+import org.ehcache.config.units.MemoryUnit;
+
 /**
  * This annotation can be added next to the @CacheResult to specify default for the {@link nl.vpro.magnolia.jsr107.CreateConfigurationTasks}
  * See also {@link CacheSettings#of(DefaultCacheSettings)}
@@ -19,6 +23,13 @@ public @interface DefaultCacheSettings  {
     boolean copyOnWrite() default false;
     boolean eternal() default false;
     int maxElementsInMemory() default 500;
+
+    /**
+     * If bigger than 0, the heap tier is sized in memory (in {@link #sizeInMemoryUnit()}) rather than in entries, and {@link #maxElementsInMemory()} is ignored.
+     * Ehcache then measures the size of every entry, which costs some time on every put.
+     */
+    int maxSizeInMemory() default 0;
+    MemoryUnit sizeInMemoryUnit() default MemoryUnit.MB;
     int maxElementsOnDisk() default 0;
     EvictionPolicy memoryStoreEvictionPolicy() default EvictionPolicy.LRU;
     boolean overflowToDisk() default true;
@@ -28,7 +39,57 @@ public @interface DefaultCacheSettings  {
     int diskSpoolBufferSizeMB() default 50;
 
     /**
-     * This is a ehcache setting. It seems not to work?
+     * The size of the off-heap tier, in MB. Entries in it don't burden the garbage collector, but must be serialized. 0 means no off-heap tier.
+     * If the cache {@link #overflowToDisk()}, the disk tier must be bigger.
+     */
+    int maxOffHeapMB() default 0;
+
+    /**
+     * Whether keys and values are stored with the {@link CompactSerializer} rather than with java serialization. This makes the off-heap and disk tiers smaller
+     * and faster. Don't switch it on for a persistent disk tier which already contains entries, because those can't be read any more.
+     */
+    boolean compactSerialization() default false;
+
+    /**
+     * If bigger than 0, values which are serialized to at least this many bytes are deflated when stored in the off-heap or disk tiers. Smaller values are not,
+     * because that would hardly save anything. Like {@link #blockingTimeout()} this is applied by the {@link MgnlCacheManager}, and values already stored are
+     * read regardless of it.
+     */
+    int compressionThreshold() default 0;
+
+    /**
+     * If bigger than 0, values older than {@link #timeToLiveSeconds()} are kept this much longer, and if calculating them again fails, the old value is returned
+     * instead of throwing the exception ('stale if error'). The key is then retried after 1, 2, 4,... seconds (at most a minute), or as configured with
+     * {@link ExceptionBackoff}, and until then the old value is returned. This is applied by the {@link CacheResult} interceptor, other users of the cache
+     * see the old values until they really expire.
+     */
+    int staleIfErrorSeconds() default 0;
+
+    /**
+     * How many milliseconds a thread waits for the value another thread is calculating for the same key, before calculating it itself. 0 means that
+     * there is no waiting at all. This is not applied by magnolia, which only supports one timeout for all caches, but by the {@link MgnlCacheManager},
+     * and can be changed in the configuration of this module, see {@link CreateConfigurationTasks}. A negative value (the default) leaves it to magnolia.
+     *
+     * The first thread missing a key is expected to put a value. If it doesn't (it only reads, or fails without storing anything), the other threads missing
+     * the same key are blocked for the full timeout.
+     */
+    int blockingTimeout() default -1;
+
+    /**
+     * If bigger than 0, entries older than this are still returned, but are recalculated in the background ('refresh ahead'). This should be smaller
+     * than {@link #timeToLiveSeconds()}, because expired entries must be recalculated before returning.
+     */
+    int refreshAfterSeconds() default 0;
+
+    /**
+     * If bigger than 0, the most used entries (at most this many) are also kept on the heap, deserialized, in front of magnolia's cache. This is
+     * meant for caches which {@link #overflowToDisk()}.
+     */
+    int nearCacheSize() default 0;
+
+    /**
+     * The maximal time entries remain in the near cache. They are also removed if expired in magnolia's cache, or changed via the {@link MgnlCacheManager}, but
+     * not if magnolia's cache is flushed.
      */
-    int blockingTimeout() default 10000;
+    int nearCacheTimeToLiveSeconds() default 60;
 }
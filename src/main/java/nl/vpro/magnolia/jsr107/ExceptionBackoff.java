@@ -0,0 +1,37 @@
+package nl.vpro.magnolia.jsr107;
+
+import java.lang.annotation.*;
+
+import javax.cache.annotation.CacheResult;
+
+/**
+ * Configures for how long an exception thrown by a {@link CacheResult} method is rethrown for the same key, without calling the method again. The first
+ * failure of a key is remembered for {@link #initialMillis()}, and every next consecutive failure of that key {@link #multiplier()} times as long, but at
+ * most {@link #maxMillis()}. A successful call resets that.
+ * <pre>{@code
+   @CacheResult(cacheName = "backend")
+   @ExceptionBackoff(value = IOException.class, initialMillis = 1000, maxMillis = 60000)
+   @ExceptionBackoff(value = IllegalArgumentException.class, initialMillis = 600000, multiplier = 1)
+   public String get(String key) throws IOException {
+}</pre>
+ * The first annotation matching the exception applies. Exceptions matched like this are not stored in the exception cache, which does not have a time to live per
+ * key. Exceptions not matched by any are handled as before.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Repeatable(ExceptionBackoffs.class)
+public @interface ExceptionBackoff {
+
+    /**
+     * The exceptions (including their subclasses) to which this applies.
+     */
+    Class<? extends Throwable>[] value() default {Throwable.class};
+
+    long initialMillis() default 1000;
+
+    double multiplier() default 2;
+
+    long maxMillis() default 60000;
+}
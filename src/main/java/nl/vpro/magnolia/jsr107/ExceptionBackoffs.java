@@ -0,0 +1,17 @@
+package nl.vpro.magnolia.jsr107;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Container of repeated {@link ExceptionBackoff} annotations.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ExceptionBackoffs {
+    ExceptionBackoff[] value();
+}
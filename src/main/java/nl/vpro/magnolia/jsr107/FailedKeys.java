@@ -0,0 +1,124 @@
+package nl.vpro.magnolia.jsr107;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+/**
+ * The keys of an {@link AdaptedCache} for which the calculation failed recently, as configured by {@link ExceptionBackoff}. For each key the last exception is
+ * kept, and until when it must be rethrown. The number of consecutive failures is remembered until {@link ExceptionBackoff#maxMillis()} after that. Keys
+ * which may be forgotten are pruned once there are more than {@link #MAX_KEYS}.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+class FailedKeys<K> {
+
+    static final int MAX_KEYS = 10_000;
+
+    private static final Map<Method, ExceptionBackoff[]> FOR_METHOD = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<K, Failure> failures = new ConcurrentHashMap<>();
+
+    private volatile LongSupplier clock = System::currentTimeMillis;
+
+    /**
+     * The {@link ExceptionBackoff} annotations of the method, in order.
+     */
+    static ExceptionBackoff[] backoffs(Method method) {
+        return FOR_METHOD.computeIfAbsent(method, m -> m.getAnnotationsByType(ExceptionBackoff.class));
+    }
+
+    /**
+     * @return The first of the backoffs applying to the exception, or <code>null</code>
+     */
+    static ExceptionBackoff backoff(ExceptionBackoff[] backoffs, Throwable t) {
+        for (ExceptionBackoff backoff : backoffs) {
+            for (Class<? extends Throwable> type : backoff.value()) {
+                if (type.isInstance(t)) {
+                    return backoff;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The exception to rethrow for the key, or <code>null</code> if the calculation may be tried (again).
+     */
+    Throwable get(K key) {
+        if (failures.isEmpty()) {
+            return null;
+        }
+        final Failure failure = failures.get(key);
+        if (failure == null || failure.retryAt <= clock.getAsLong()) {
+            return null;
+        }
+        return failure.throwable;
+    }
+
+    /**
+     * Registers a failure of the calculation for the key.
+     * @return For how many milliseconds the exception will be rethrown
+     */
+    long failed(K key, Throwable throwable, ExceptionBackoff backoff) {
+        return failed(key, throwable, backoff.initialMillis(), backoff.multiplier(), backoff.maxMillis());
+    }
+
+    long failed(K key, Throwable throwable, long initialMillis, double multiplier, long maxMillis) {
+        final long now = clock.getAsLong();
+        final Failure failure = failures.compute(key, (k, previous) -> {
+            final int count = previous == null || previous.forgetAt <= now ? 1 : previous.count + 1;
+            return new Failure(throwable, count, now + delay(initialMillis, multiplier, maxMillis, count), maxMillis);
+        });
+        if (failures.size() > MAX_KEYS) {
+            failures.values().removeIf(f -> f.forgetAt <= now);
+        }
+        return failure.retryAt - now;
+    }
+
+    void reset(K key) {
+        if (! failures.isEmpty()) {
+            failures.remove(key);
+        }
+    }
+
+    void clear() {
+        failures.clear();
+    }
+
+    int size() {
+        return failures.size();
+    }
+
+    /**
+     * For testing: the time in milliseconds, instead of {@link System#currentTimeMillis()}.
+     */
+    void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    static long delay(ExceptionBackoff backoff, int count) {
+        return delay(backoff.initialMillis(), backoff.multiplier(), backoff.maxMillis(), count);
+    }
+
+    static long delay(long initialMillis, double multiplier, long maxMillis, int count) {
+        final double delay = initialMillis * Math.pow(multiplier, count - 1);
+        return (long) Math.min(delay, maxMillis);
+    }
+
+    private static class Failure {
+        private final Throwable throwable;
+        private final int count;
+        private final long retryAt;
+        private final long forgetAt;
+
+        private Failure(Throwable throwable, int count, long retryAt, long maxMillis) {
+            this.throwable = throwable;
+            this.count = count;
+            this.retryAt = retryAt;
+            this.forgetAt = retryAt + maxMillis;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package nl.vpro.magnolia.jsr107;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.cache.Cache;
+import javax.cache.annotation.CacheResult;
+import javax.cache.annotation.GeneratedCacheKey;
+import javax.inject.Inject;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.commons.lang3.StringUtils;
+import org.jsr107.ri.annotations.*;
+
+/**
+ * Does for {@link CacheResult} what the chain of {@link ReturnCacheValueUnInterceptor}, {@link NonBlockingCacheResultInterceptor} and
+ * {@link ReturnCacheValueInterceptor} does, in one interceptor. The invocation context, the key and the cache are determined only once per call, and what
+ * only depends on the method (its settings, backoffs and exception cache) once per method. A hit costs just one read of the cache, the exception cache is
+ * only read after a miss.
+ *
+ * The {@link AdaptedCache#NULL} and {@link AdaptedCache#EXCEPTION} markers are handled here: <code>null</code> is stored as the first, and if the method
+ * throws, the second is stored to release the lock of magnolia's blocking cache. Exceptions configured with {@link ExceptionBackoff} are rethrown for a while
+ * without calling the method, the others are stored in the exception cache, if there is one.
+ *
+ * For methods with {@link DefaultCacheSettings#staleIfErrorSeconds()}, values older than their time to live are calculated again by one thread, while the
+ * others still get the old value. If that fails, the old value is returned, and the key is not tried again for a while. Other readers of the cache see a miss for
+ * such values, see {@link AdaptedCache#setStaleAfter(java.time.Duration)}.
+ *
+ * For methods with {@link DefaultCacheSettings#refreshAfterSeconds()}, the age of the value read is checked here too, so a hit still costs one read. Older
+ * values are refreshed in the background by {@link RefreshAheadInterceptor#refresh(MethodInvocation, AdaptedCache, GeneratedCacheKey)}.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+@Slf4j
+class FusedCacheResultInterceptor extends AbstractCacheResultInterceptor<MethodInvocation> implements MethodInterceptor {
+
+    static final long STALE_RETRY_INITIAL_MILLIS = 1000;
+    static final long STALE_RETRY_MAX_MILLIS = 60000;
+
+    /**
+     * The caches and keys of the stale values currently being calculated again.
+     */
+    private final Set<List<Object>> recalculating = ConcurrentHashMap.newKeySet();
+
+    private final Map<Method, CachedMethod> methods = new ConcurrentHashMap<>();
+
+    private CacheContextSource<MethodInvocation> cacheContextSource;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (RefreshAheadInterceptor.isRefreshing(invocation)) {
+            // the refresh stores the result itself
+            return invocation.proceed();
+        }
+        final InternalCacheKeyInvocationContext<? extends Annotation> cacheKeyInvocationContext = cacheContextSource.getCacheKeyInvocationContext(invocation);
+        final CacheResultMethodDetails methodDetails = getStaticCacheKeyInvocationContext(cacheKeyInvocationContext, InterceptorType.CACHE_RESULT);
+        final CacheResult cacheResult = methodDetails.getCacheAnnotation();
+        final GeneratedCacheKey cacheKey = methodDetails.getCacheKeyGenerator().generateCacheKey(cacheKeyInvocationContext);
+        final Cache<Object, Object> cache = methodDetails.getCacheResolver().resolveCache(cacheKeyInvocationContext);
+        final CachedMethod method = cachedMethod(invocation.getMethod(), cacheResult);
+        final FailedKeys<Object> failures = method.backoffs.length == 0 ? null : failures(cache);
+
+        if (! cacheResult.skipGet()) {
+            if (method.staleIfErrorMillis > 0 && cache instanceof AdaptedCache) {
+                final AdaptedCache<Object, Object> adapted = (AdaptedCache<Object, Object>) cache;
+                final CacheValue<Object> stored = adapted.getStoredCacheValue(cacheKey);
+                if (stored != null && ! AdaptedCache.EXCEPTION.equals(stored.orNull())) {
+                    final long age = System.currentTimeMillis() - stored.getCreated();
+                    if (age <= method.timeToLiveMillis) {
+                        return hit(invocation, adapted, cacheKey, stored, method);
+                    }
+                    if (age <= method.timeToLiveMillis + method.staleIfErrorMillis) {
+                        return staleIfError(invocation, adapted, cacheKey, stored, method.backoffs);
+                    }
+                }
+            }
+            if (method.refreshAfterMillis > 0 && cache instanceof AdaptedCache) {
+                final AdaptedCache<Object, Object> adapted = (AdaptedCache<Object, Object>) cache;
+                final CacheValue<Object> stored = adapted.getCacheValueIfHit(cacheKey);
+                if (stored != null && ! AdaptedCache.EXCEPTION.equals(stored.orNull())) {
+                    return hit(invocation, adapted, cacheKey, stored, method);
+                }
+            }
+            if (failures != null) {
+                // before reading the cache, which would lock the key in magnolia's blocking cache
+                final Throwable failure = failures.get(cacheKey);
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+            final Object stored = cache.get(cacheKey);
+            if (stored != null) {
+                return ReturnCacheValueUnInterceptor.unwrap(stored);
+            }
+            // a stored exception reads as a miss too
+            final Cache<Object, Object> exceptionCache = method.exceptionCache(cache, methodDetails, cacheKeyInvocationContext);
+            if (exceptionCache != null && exceptionCache.containsKey(cacheKey)) {
+                final Object throwable = exceptionCache.get(cacheKey);
+                if (throwable instanceof Throwable) {
+                    // nothing will be put for the miss
+                    if (cache instanceof AdaptedCache) {
+                        ((AdaptedCache<Object, Object>) cache).release(cacheKey);
+                    }
+                    throw (Throwable) throwable;
+                }
+            }
+        }
+        final Object result;
+        try {
+            result = proceed(invocation);
+        } catch (Throwable t) {
+            //Putting _something_ in the cache, otherwise Blocking timeout exceptions in magnolia....
+            cache.put(cacheKey, AdaptedCache.EXCEPTION);
+            final ExceptionBackoff backoff = failures == null ? null : FailedKeys.backoff(method.backoffs, t);
+            if (backoff != null) {
+                final long millis = failures.failed(cacheKey, t, backoff);
+                log.debug("Rethrowing {} for {} {} during {} ms", t.getClass(), cache.getName(), cacheKey, millis);
+            } else if (method.exceptionCacheName != null && AsyncCacheResultInterceptor.isCached(cacheResult, t)) {
+                final Cache<Object, Object> exceptionCache = method.exceptionCache(cache, methodDetails, cacheKeyInvocationContext);
+                log.debug("Caching {} {} {}", exceptionCache, cacheKey, t.getClass());
+                exceptionCache.put(cacheKey, t);
+            }
+            throw t;
+        }
+        cache.put(cacheKey, result == null ? AdaptedCache.NULL : result);
+        return result;
+    }
+
+    /**
+     * Returns the value, and refreshes it in the background if it is older than the method wants.
+     */
+    private Object hit(MethodInvocation invocation, AdaptedCache<Object, Object> cache, GeneratedCacheKey cacheKey, CacheValue<Object> stored, CachedMethod method) {
+        if (method.refreshAfterMillis > 0 && System.currentTimeMillis() - stored.getCreated() > method.refreshAfterMillis) {
+            RefreshAheadInterceptor.refresh(invocation, cache, cacheKey);
+        }
+        return ReturnCacheValueUnInterceptor.unwrap(stored.orNull());
+    }
+
+    private CachedMethod cachedMethod(Method method, CacheResult cacheResult) {
+        final CachedMethod cached = methods.get(method);
+        if (cached != null) {
+            return cached;
+        }
+        return methods.computeIfAbsent(method, m -> new CachedMethod(m, cacheResult));
+    }
+
+    /**
+     * Calculates an expired value again, but returns the stale one if that fails, or if it failed recently, or if another thread is doing it.
+     */
+    private Object staleIfError(
+        MethodInvocation invocation,
+        AdaptedCache<Object, Object> cache,
+        GeneratedCacheKey cacheKey,
+        CacheValue<Object> stale,
+        ExceptionBackoff[] backoffs) throws Throwable {
+        final FailedKeys<Object> failures = cache.getFailures();
+        final List<Object> id = Arrays.asList(cache.getName(), cacheKey);
+        if (failures.get(cacheKey) != null || ! recalculating.add(id)) {
+            return ReturnCacheValueUnInterceptor.unwrap(stale.orNull());
+        }
+        try {
+            final Object result = proceed(invocation);
+            cache.put(cacheKey, result == null ? AdaptedCache.NULL : result);
+            return result;
+        } catch (Exception e) {
+            final ExceptionBackoff backoff = FailedKeys.backoff(backoffs, e);
+            final long millis = backoff == null ?
+                failures.failed(cacheKey, e, STALE_RETRY_INITIAL_MILLIS, 2, STALE_RETRY_MAX_MILLIS) :
+                failures.failed(cacheKey, e, backoff);
+            log.warn("Returning stale value for {} {} ({} s old), trying again in {} ms: {} {}",
+                cache.getName(), cacheKey, (System.currentTimeMillis() - stale.getCreated()) / 1000, millis, e.getClass().getName(), e.getMessage());
+            return ReturnCacheValueUnInterceptor.unwrap(stale.orNull());
+        } finally {
+            recalculating.remove(id);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static FailedKeys<Object> failures(Cache<Object, Object> cache) {
+        return cache instanceof AdaptedCache ? ((AdaptedCache<Object, Object>) cache).getFailures() : null;
+    }
+
+    @Override
+    protected Object proceed(MethodInvocation invocation) throws Throwable {
+        return invocation.proceed();
+    }
+
+    @Inject
+    public void setCacheContextSource(CacheContextSource<MethodInvocation> cacheContextSource) {
+        this.cacheContextSource = cacheContextSource;
+    }
+
+    /**
+     * What is needed per call of a method, determined once.
+     */
+    private static class CachedMethod {
+        private final String exceptionCacheName;
+        private final ExceptionBackoff[] backoffs;
+        private final long timeToLiveMillis;
+        private final long staleIfErrorMillis;
+        private final long refreshAfterMillis;
+        private volatile ExceptionCache exceptionCache;
+
+        private CachedMethod(Method method, CacheResult cacheResult) {
+            this.exceptionCacheName = StringUtils.isBlank(cacheResult.exceptionCacheName()) ? null : cacheResult.exceptionCacheName();
+            this.backoffs = FailedKeys.backoffs(method);
+            final CacheSettings settings = CacheSettings.of(method);
+            final boolean staleIfError = settings.getStaleIfErrorSeconds() > 0 && settings.getTimeToLiveSeconds() != null;
+            this.timeToLiveMillis = staleIfError ? settings.getTimeToLiveSeconds() * 1000L : 0;
+            this.staleIfErrorMillis = staleIfError ? settings.getStaleIfErrorSeconds() * 1000L : 0;
+            this.refreshAfterMillis = settings.getRefreshAfterSeconds() * 1000L;
+        }
+
+        /**
+         * The exception cache is resolved again when the cache itself is a new one, because then magnolia restarted its caches.
+         */
+        private Cache<Object, Object> exceptionCache(
+            Cache<Object, Object> cache,
+            CacheResultMethodDetails methodDetails,
+            InternalCacheKeyInvocationContext<? extends Annotation> cacheKeyInvocationContext) {
+            if (exceptionCacheName == null) {
+                return null;
+            }
+            ExceptionCache resolved = exceptionCache;
+            if (resolved == null || resolved.cache != cache) {
+                resolved = new ExceptionCache(cache, methodDetails.getExceptionCacheResolver().resolveCache(cacheKeyInvocationContext));
+                exceptionCache = resolved;
+            }
+            return resolved.exceptionCache;
+        }
+    }
+
+    private static class ExceptionCache {
+        private final Cache<Object, Object> cache;
+        private final Cache<Object, Object> exceptionCache;
+
+        private ExceptionCache(Cache<Object, Object> cache, Cache<Object, Object> exceptionCache) {
+            this.cache = cache;
+            this.exceptionCache = exceptionCache;
+        }
+    }
+}
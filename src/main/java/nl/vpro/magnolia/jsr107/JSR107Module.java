@@ -2,8 +2,15 @@ package nl.vpro.magnolia.jsr107;
 
 import info.magnolia.module.ModuleLifecycle;
 import info.magnolia.module.ModuleLifecycleContext;
+import info.magnolia.module.cache.CacheModule;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.inject.Inject;
 
 /**
@@ -13,16 +20,40 @@ import javax.inject.Inject;
 @Slf4j
 public class JSR107Module implements ModuleLifecycle {
     private final MgnlCacheManager mgnlCacheManager;
+    private final CacheModule cacheModule;
+
+    /**
+     * The blocking timeouts in milliseconds per cache name, as configured in <code>/modules/jsr107/config/blockingTimeouts</code>. See
+     * {@link MgnlCacheManager#setBlockingTimeout(String, Duration)}.
+     * @since 1.15
+     */
+    @Getter
+    @Setter
+    private Map<String, Long> blockingTimeouts = new HashMap<>();
+
+    /**
+     * Whether {@link #mgnlCacheManager} listens to the {@link #cacheModule} already. Module restarts must not register it again.
+     */
+    private boolean registered = false;
 
     @Inject
-    public JSR107Module(MgnlCacheManager mgnlCacheManager) {
+    public JSR107Module(MgnlCacheManager mgnlCacheManager, CacheModule cacheModule) {
         this.mgnlCacheManager = mgnlCacheManager;
+        this.cacheModule = cacheModule;
     }
 
     @Override
     public void start(ModuleLifecycleContext moduleLifecycleContext) {
         log.info("javax.cache.CacheManager: {}. Version {}. See https://github.com/vpro/jsr107-magnolia",
             mgnlCacheManager,  moduleLifecycleContext.getCurrentModuleDefinition().getVersion());
+        // the adapted caches are memoized, they must be forgotten when the cache module restarts its cache factory
+        if (! registered) {
+            cacheModule.register(mgnlCacheManager);
+            registered = true;
+        }
+        blockingTimeouts.forEach((cacheName, timeout) ->
+            mgnlCacheManager.setBlockingTimeout(cacheName, timeout == null || timeout < 0 ? null : Duration.ofMillis(timeout))
+        );
 
     }
 
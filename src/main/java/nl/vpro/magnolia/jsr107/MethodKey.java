@@ -1,6 +1,9 @@
 package nl.vpro.magnolia.jsr107;
 
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.cache.annotation.CacheKeyGenerator;
 import javax.cache.annotation.CacheKeyInvocationContext;
@@ -15,13 +18,16 @@ import org.jsr107.ri.annotations.DefaultGeneratedCacheKey;
    public Site getSite() {
        ...
 }</pre>
+ * The key of every method is created only once.
  * @author Michiel Meeuwissen
  * @since 1.1
  */
 public class MethodKey implements CacheKeyGenerator {
+
+    private static final ConcurrentMap<Method, GeneratedCacheKey> KEYS = new ConcurrentHashMap<>();
+
     @Override
     public GeneratedCacheKey generateCacheKey(CacheKeyInvocationContext<? extends Annotation> cacheKeyInvocationContext) {
-        String key = cacheKeyInvocationContext.getMethod().toGenericString();
-        return new DefaultGeneratedCacheKey(new Object[] { key });
+        return KEYS.computeIfAbsent(cacheKeyInvocationContext.getMethod(), m -> new DefaultGeneratedCacheKey(new Object[] { m.toGenericString() }));
     }
 }
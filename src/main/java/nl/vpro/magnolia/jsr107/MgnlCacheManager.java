@@ -2,25 +2,43 @@ package nl.vpro.magnolia.jsr107;
 
 import info.magnolia.module.cache.BlockingCache;
 import info.magnolia.module.cache.CacheFactory;
+import info.magnolia.module.cache.CacheModuleLifecycleListener;
 import info.magnolia.module.cache.inject.CacheFactoryProvider;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.cache.Cache;
+import javax.cache.CacheException;
 import javax.cache.CacheManager;
 import javax.cache.annotation.CacheKeyGenerator;
 import javax.cache.annotation.CacheKeyInvocationContext;
 import javax.cache.annotation.CacheResolver;
 import javax.cache.annotation.GeneratedCacheKey;
+import javax.cache.configuration.CacheEntryListenerConfiguration;
+import javax.cache.configuration.CompleteConfiguration;
 import javax.cache.configuration.Configuration;
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheWriter;
+import javax.cache.management.CacheMXBean;
+import javax.cache.management.CacheStatisticsMXBean;
 import javax.cache.spi.CachingProvider;
 import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.net.URI;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.function.IntFunction;
 
@@ -31,23 +49,69 @@ import org.jsr107.ri.annotations.guice.CacheLookupUtil;
 /**
  * Adapts a magnolia {@link CacheFactoryProvider} to a {@link CacheManager}. This is needed for cache-annotations-ri-guice, but
  * it can be used more genericly for code which desires such a cache manager.
+ *
+ * The adapted caches are memoized per cache name, and renewed as soon as magnolia starts (or restarts) its {@link CacheFactory}.
  * @author Michiel Meeuwissen
  * @since 1.0
  */
 @Slf4j
-@ToString
-public class MgnlCacheManager implements CacheManager {
+@ToString(exclude = {"adaptedCaches", "cacheLoaders", "executor", "ownExecutor", "scheduler", "ownScheduler", "statistics", "managed", "blockingTimeouts", "nearCaches", "compressionThresholds", "staleAfters", "listenerConfigurations"})
+@Singleton
+public class MgnlCacheManager implements CacheManager, CacheModuleLifecycleListener {
 
     private final CacheFactoryProvider factory;
 
     private final CacheLookupUtil cacheLookupUtil;
+
+    private final ConcurrentMap<String, Adapted<?, ?>> adaptedCaches = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, CacheLoader<?, ?>> cacheLoaders = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, AdaptedCacheStatistics> statistics = new ConcurrentHashMap<>();
+
+    private final Set<String> managed = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentMap<String, Duration> blockingTimeouts = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, NearCacheSettings> nearCaches = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Integer> compressionThresholds = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Duration> staleAfters = new ConcurrentHashMap<>();
+
+    /**
+     * The listeners registered on the caches, so that they can be registered again when a cache is renewed.
+     */
+    private final ConcurrentMap<String, Set<CacheEntryListenerConfiguration<?, ?>>> listenerConfigurations = new ConcurrentHashMap<>();
+
+    /**
+     * Used for work on the caches which is done in parallel, like {@link Cache#loadAll(Set, boolean, javax.cache.integration.CompletionListener)}.
+     * Defaults to a pool of daemon threads, one per processor.
+     */
+    private Executor executor = defaultExecutor();
+
+    /**
+     * Whether {@link #executor} and {@link #scheduler} were created here, and hence must be shut down here too.
+     */
+    private boolean ownExecutor = true;
+    private boolean ownScheduler = true;
+
+    /**
+     * Used for work on the caches which must happen later, like flushing a write-behind queue.
+     */
+    private ScheduledExecutorService scheduler = defaultScheduler();
+
+    /**
+     * How long threads of unblocking caches wait for a value which is being calculated by another thread, before calculating it themselves.
+     */
+    private Duration singleFlightMaxWait = SingleFlight.DEFAULT_MAX_WAIT;
     
     private static final Map<Class<? extends CacheKeyGenerator>, Function<GeneratedCacheKey, Object[]>> 
     PARAMETER_GETTER = new HashMap<>();
     
     static {
         PARAMETER_GETTER.put(MgnlObjectsAwareCacheKeyGenerator.class, 
-            createGetter(SerializableGeneratedCacheKey.class, "parameters"));
+            key -> ((SerializableGeneratedCacheKey) key).getParameters());
 
         PARAMETER_GETTER.put(DefaultCacheKeyGenerator.class, 
             createGetter(DefaultGeneratedCacheKey.class, "parameters"));
@@ -71,6 +135,59 @@ public class MgnlCacheManager implements CacheManager {
         };
     }
 
+    private static Executor defaultExecutor() {
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "jsr107-magnolia-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ScheduledExecutorService defaultScheduler() {
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "jsr107-magnolia-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    // explicit, since lombok's @Getter would be shadowed by MgnlCacheManager.Getter
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+        this.ownExecutor = false;
+    }
+
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        this.ownScheduler = false;
+    }
+
+    public Duration getSingleFlightMaxWait() {
+        return singleFlightMaxWait;
+    }
+
+    /**
+     * @param singleFlightMaxWait <code>null</code> to wait forever. Also applies to the caches already in use.
+     */
+    public void setSingleFlightMaxWait(Duration singleFlightMaxWait) {
+        this.singleFlightMaxWait = singleFlightMaxWait;
+        adaptedCaches.values().forEach(a -> a.cache.setSingleFlightMaxWait(singleFlightMaxWait));
+    }
+
     @Inject
     public MgnlCacheManager(CacheFactoryProvider factory, CacheLookupUtil util) {
         this.factory = factory;
@@ -107,11 +224,25 @@ public class MgnlCacheManager implements CacheManager {
 
     }
 
+    /**
+     * Of the configuration only the read-through, write-through, statistics and management settings of a {@link CompleteConfiguration}, and the write-behind
+     * settings of a {@link MgnlMutableConfiguration} are considered. The other settings of the cache are configured in magnolia.
+     */
     @Override
     public <K, V, C extends Configuration<K, V>> Cache<K, V> createCache(String cacheName, C configuration) throws IllegalArgumentException {
         log.info("Creating cache {}", cacheName);
-        info.magnolia.module.cache.Cache mgnlCache = get().getCache(cacheName);
-        return new AdaptedCache<>(mgnlCache, this, configuration);
+        Adapted<K, V> adapted = newAdapted(get(), cacheName, configuration);
+        close(adaptedCaches.put(cacheName, adapted));
+        if (configuration instanceof CompleteConfiguration) {
+            CompleteConfiguration<K, V> complete = (CompleteConfiguration<K, V>) configuration;
+            if (complete.isStatisticsEnabled()) {
+                enableStatistics(cacheName, true);
+            }
+            if (complete.isManagementEnabled()) {
+                enableManagement(cacheName, true);
+            }
+        }
+        return adapted.cache;
 
     }
 
@@ -122,16 +253,213 @@ public class MgnlCacheManager implements CacheManager {
 
     @Override
     public <K, V> Cache<K, V> getCache(String cacheName) {
-        return new AdaptedCache<>(get().getCache(cacheName), this, MgnlCacheConfiguration.INSTANCE);
+        return this.<K, V>adapted(cacheName).cache;
     }
 
     /**
      * Caches in magnolia are always blocking. Sometimes this is asking for trouble.
+     *
+     * The returned cache never holds magnolia's lock. Concurrent read-through of the same key is still done only once, see {@link #computeIfAbsent(String, Object, Function)}.
      */
     public <K, V> Cache<K, V> getUnblockingCache(String cacheName) {
-        return new UnblockingCache<K, V>(
-            new AdaptedCache<>(get().getCache(cacheName), this, MgnlCacheConfiguration.INSTANCE)
-        );
+        return this.<K, V>adapted(cacheName).unblocking;
+    }
+
+    /**
+     * Gets a value from the cache without blocking it, or else calculates and stores it. If several threads miss the same key at the same time, only one of them
+     * calls the function, and the others wait for its result (at most {@link #getSingleFlightMaxWait()}). This protects against stampedes on expensive
+     * calculations, without relying on the locks of magnolia's blocking caches, which are never released if the calculating thread fails to put a value.
+     * @param function Calculates the value for the key. If it returns <code>null</code>, nothing is stored.
+     */
+    public <K, V> V computeIfAbsent(String cacheName, K key, Function<? super K, ? extends V> function) {
+        return this.<K, V>adapted(cacheName).cache.getUnblocking(key, function);
+    }
+
+    /**
+     * Magnolia (re)started its cache factory, so all caches obtained from it before are stale now.
+     */
+    @Override
+    public void onCacheModuleStart() {
+        log.info("Cache module (re)started, renewing {} adapted caches", adaptedCaches.size());
+        adaptedCaches.values().forEach(a -> a.stale = true);
+    }
+
+    private void close(Adapted<?, ?> adapted) {
+        if (adapted != null) {
+            adapted.cache.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <K, V> Adapted<K, V> adapted(String cacheName) {
+        final CacheFactory cacheFactory = get();
+        Adapted<K, V> adapted = (Adapted<K, V>) adaptedCaches.get(cacheName);
+        if (adapted == null || adapted.stale || adapted.factory != cacheFactory) {
+            adapted = (Adapted<K, V>) adaptedCaches.compute(cacheName, (name, existing) -> {
+                if (existing == null) {
+                    return newAdapted(cacheFactory, name, MgnlCacheConfiguration.INSTANCE);
+                }
+                if (! existing.stale && existing.factory == cacheFactory) {
+                    return existing;
+                }
+                close(existing);
+                return newAdapted(cacheFactory, name, existing.configuration);
+            });
+        }
+        return adapted;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <K, V> Adapted<K, V> newAdapted(CacheFactory cacheFactory, String cacheName, Configuration<?, ?> configuration) {
+        Adapted<K, V> adapted = new Adapted<>(cacheFactory, cacheFactory.getCache(cacheName), this, configuration);
+        CacheLoader<K, V> loader = (CacheLoader<K, V>) cacheLoaders.get(cacheName);
+        // only a loader created here is the adapted cache's own, the registered ones are shared by all its incarnations
+        boolean ownLoader = false;
+        if (configuration instanceof CompleteConfiguration) {
+            CompleteConfiguration<K, V> complete = (CompleteConfiguration<K, V>) configuration;
+            if (loader == null && complete.getCacheLoaderFactory() != null) {
+                loader = complete.getCacheLoaderFactory().create();
+                ownLoader = true;
+            }
+            adapted.cache.setReadThrough(complete.isReadThrough() && loader != null);
+            if (complete.isWriteThrough() && complete.getCacheWriterFactory() != null) {
+                adapted.cache.setCacheWriter(cacheWriter(cacheName, complete));
+            }
+        }
+        adapted.cache.setCacheLoader(loader, ownLoader);
+        adapted.cache.setStatistics(statistics.get(cacheName));
+        adapted.cache.setSingleFlightMaxWait(singleFlightMaxWait);
+        adapted.cache.setBlockingTimeout(blockingTimeouts.get(cacheName));
+        adapted.cache.setCompressionThreshold(compressionThresholds.getOrDefault(cacheName, 0));
+        adapted.cache.setStaleAfter(staleAfters.get(cacheName));
+        final NearCacheSettings near = nearCaches.get(cacheName);
+        if (near != null) {
+            adapted.cache.setNearCache(near.maxSize, near.timeToLive);
+        }
+        for (CacheEntryListenerConfiguration<?, ?> listener : listenerConfigurations.getOrDefault(cacheName, Collections.emptySet())) {
+            adapted.cache.registerCacheEntryListener((CacheEntryListenerConfiguration<K, V>) listener);
+        }
+        return adapted;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <K, V> CacheWriter<K, V> cacheWriter(String cacheName, CompleteConfiguration<K, V> configuration) {
+        final CacheWriter<K, V> writer = (CacheWriter<K, V>) configuration.getCacheWriterFactory().create();
+        if (configuration instanceof MgnlMutableConfiguration && ((MgnlMutableConfiguration<K, V>) configuration).isWriteBehind()) {
+            final MgnlMutableConfiguration<K, V> mgnl = (MgnlMutableConfiguration<K, V>) configuration;
+            return new WriteBehindCacheWriter<>(cacheName, writer, mgnl.getWriteBehindMaxDelay(), mgnl.getWriteBehindBatchSize(), scheduler, executor);
+        }
+        return writer;
+    }
+
+    /**
+     * Sets the blocking timeout of one cache. Magnolia's blocking caches only have one timeout for all caches, so with this set, the cache doesn't use magnolia's
+     * locking any more, but blocks concurrent misses for the same key itself. {@link Duration#ZERO} means that concurrent misses are not blocked at all.
+     * @param blockingTimeout <code>null</code> to use the locking of magnolia's cache again.
+     */
+    public void setBlockingTimeout(String cacheName, Duration blockingTimeout) {
+        if (blockingTimeout == null) {
+            blockingTimeouts.remove(cacheName);
+        } else {
+            blockingTimeouts.put(cacheName, blockingTimeout);
+        }
+        adapted(cacheName).cache.setBlockingTimeout(blockingTimeout);
+    }
+
+    public Duration getBlockingTimeout(String cacheName) {
+        return blockingTimeouts.get(cacheName);
+    }
+
+    /**
+     * Puts a near cache in front of the cache with the given name, which keeps the most used entries deserialized on the heap.
+     * @param maxSize The maximal number of entries. 0 to remove the near cache.
+     * @param timeToLive How long entries may stay in the near cache at most.
+     */
+    public void setNearCache(String cacheName, int maxSize, Duration timeToLive) {
+        if (maxSize <= 0) {
+            nearCaches.remove(cacheName);
+        } else {
+            nearCaches.put(cacheName, new NearCacheSettings(maxSize, timeToLive));
+        }
+        adapted(cacheName).cache.setNearCache(maxSize, timeToLive);
+    }
+
+    /**
+     * Makes the cache with the given name compress the values it stores from now on, when they are serialized for an off-heap or disk tier to at least this
+     * many bytes.
+     * @param compressionThreshold 0 to not compress any more.
+     */
+    public void setCompressionThreshold(String cacheName, int compressionThreshold) {
+        if (compressionThreshold <= 0) {
+            compressionThresholds.remove(cacheName);
+        } else {
+            compressionThresholds.put(cacheName, compressionThreshold);
+        }
+        adapted(cacheName).cache.setCompressionThreshold(Math.max(compressionThreshold, 0));
+    }
+
+    public int getCompressionThreshold(String cacheName) {
+        return compressionThresholds.getOrDefault(cacheName, 0);
+    }
+
+    /**
+     * Applies the settings of a {@link DefaultCacheSettings} annotation which magnolia doesn't know about, unless they were configured already.
+     */
+    void defaults(String cacheName, CacheSettings settings) {
+        if (settings.getBlockingTimeout() >= 0) {
+            final Duration blockingTimeout = Duration.ofMillis(settings.getBlockingTimeout());
+            if (blockingTimeouts.putIfAbsent(cacheName, blockingTimeout) == null) {
+                log.debug("Blocking timeout of {}: {}", cacheName, blockingTimeout);
+                adapted(cacheName).cache.setBlockingTimeout(blockingTimeout);
+            }
+        }
+        if (settings.getNearCacheSize() > 0) {
+            final NearCacheSettings near = new NearCacheSettings(settings.getNearCacheSize(), Duration.ofSeconds(settings.getNearCacheTimeToLiveSeconds()));
+            if (nearCaches.putIfAbsent(cacheName, near) == null) {
+                log.debug("Near cache of {}: {}", cacheName, near);
+                adapted(cacheName).cache.setNearCache(near.maxSize, near.timeToLive);
+            }
+        }
+        if (settings.getCompressionThreshold() > 0) {
+            if (compressionThresholds.putIfAbsent(cacheName, settings.getCompressionThreshold()) == null) {
+                log.debug("Compression threshold of {}: {}", cacheName, settings.getCompressionThreshold());
+                adapted(cacheName).cache.setCompressionThreshold(settings.getCompressionThreshold());
+            }
+        }
+        if (settings.getStaleIfErrorSeconds() > 0 && ! settings.isEternal() && settings.getTimeToLiveSeconds() != null && settings.getTimeToLiveSeconds() > 0) {
+            // the expiry of the cache includes the stale period, the other readers must not see those values
+            final Duration staleAfter = Duration.ofSeconds(settings.getTimeToLiveSeconds());
+            if (staleAfters.putIfAbsent(cacheName, staleAfter) == null) {
+                log.debug("Values of {} are stale after {}", cacheName, staleAfter);
+                adapted(cacheName).cache.setStaleAfter(staleAfter);
+            }
+        }
+    }
+
+    /**
+     * Called by {@link AdaptedCache#registerCacheEntryListener(CacheEntryListenerConfiguration)}.
+     */
+    void registered(String cacheName, CacheEntryListenerConfiguration<?, ?> listener) {
+        listenerConfigurations.computeIfAbsent(cacheName, name -> new CopyOnWriteArraySet<>()).add(listener);
+    }
+
+    /**
+     * Called by {@link AdaptedCache#deregisterCacheEntryListener(CacheEntryListenerConfiguration)}.
+     */
+    void deregistered(String cacheName, CacheEntryListenerConfiguration<?, ?> listener) {
+        listenerConfigurations.computeIfPresent(cacheName, (name, listeners) -> {
+            listeners.remove(listener);
+            return listeners.isEmpty() ? null : listeners;
+        });
+    }
+
+    /**
+     * Registers the {@link CacheLoader} to be used by {@link Cache#loadAll(Set, boolean, javax.cache.integration.CompletionListener)} of the cache with the given name.
+     * This can e.g. be used to warm up a cache after deployment.
+     */
+    public <K, V> void registerCacheLoader(String cacheName, CacheLoader<K, V> cacheLoader) {
+        cacheLoaders.put(cacheName, cacheLoader);
+        this.<K, V>adapted(cacheName).cache.setCacheLoader(cacheLoader);
     }
     @Override
     public Iterable<String> getCacheNames() {
@@ -143,20 +471,113 @@ public class MgnlCacheManager implements CacheManager {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Registers (or unregisters) a {@link CacheMXBean} for the cache, with object name <code>javax.cache:type=CacheConfiguration,CacheManager=...,Cache=&lt;cacheName&gt;</code>
+     */
     @Override
     public void enableManagement(String cacheName, boolean enabled) {
-
-
+        if (enabled) {
+            if (managed.add(cacheName)) {
+                register(objectName("CacheConfiguration", cacheName), new StandardMBean(new AdaptedCacheMXBean(this, cacheName), CacheMXBean.class, true));
+            }
+        } else if (managed.remove(cacheName)) {
+            unregister(objectName("CacheConfiguration", cacheName));
+        }
     }
 
+    /**
+     * Starts (or stops) keeping statistics for the cache, and registers them as a {@link CacheStatisticsMXBean}, with object name
+     * <code>javax.cache:type=CacheStatistics,CacheManager=...,Cache=&lt;cacheName&gt;</code>. The statistics survive a restart of magnolia's
+     * cache module.
+     */
     @Override
     public void enableStatistics(String cacheName, boolean enabled) {
+        if (enabled) {
+            final AdaptedCacheStatistics stats = statistics.computeIfAbsent(cacheName, name -> {
+                AdaptedCacheStatistics created = new AdaptedCacheStatistics();
+                register(objectName("CacheStatistics", name), new StandardMBean(created, CacheStatisticsMXBean.class, true));
+                return created;
+            });
+            adapted(cacheName).cache.setStatistics(stats);
+        } else {
+            if (statistics.remove(cacheName) != null) {
+                unregister(objectName("CacheStatistics", cacheName));
+            }
+            adapted(cacheName).cache.setStatistics(null);
+        }
+    }
+
+    public boolean isStatisticsEnabled(String cacheName) {
+        return statistics.containsKey(cacheName);
+    }
 
+    private static ObjectName objectName(String type, String cacheName) {
+        try {
+            return new ObjectName("javax.cache:type=" + type + ",CacheManager=" + sanitize(MgnlCacheManager.class.getName()) + ",Cache=" + sanitize(cacheName));
+        } catch (MalformedObjectNameException e) {
+            throw new CacheException(e);
+        }
+    }
+
+    private static String sanitize(String value) {
+        return value.replaceAll("[,:=\n]", ".");
+    }
+
+    private static void register(ObjectName name, StandardMBean bean) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(bean, name);
+        } catch (JMException e) {
+            log.warn("Could not register {}: {}", name, e.getMessage());
+        }
+    }
+
+    private static void unregister(ObjectName name) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            log.warn("Could not unregister {}: {}", name, e.getMessage());
+        }
     }
 
     @Override
     public void close() {
+        adaptedCaches.values().forEach(this::close);
+        adaptedCaches.clear();
+        for (String cacheName : statistics.keySet()) {
+            unregister(objectName("CacheStatistics", cacheName));
+        }
+        statistics.clear();
+        for (String cacheName : managed) {
+            unregister(objectName("CacheConfiguration", cacheName));
+        }
+        managed.clear();
+        // only now, closing the caches may have flushed write-behind writers on them
+        shutdownScheduler();
+        shutdownExecutor();
+    }
+
+    /**
+     * Shuts down the executor if it is the default one, which is replaced by a fresh one, so the manager stays usable. Its threads are only started when needed.
+     */
+    private void shutdownExecutor() {
+        if (ownExecutor && executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdown();
+            executor = defaultExecutor();
+        }
+    }
 
+    private void shutdownScheduler() {
+        if (ownScheduler) {
+            scheduler.shutdown();
+            scheduler = defaultScheduler();
+        }
     }
 
     @Override
@@ -306,6 +727,35 @@ public class MgnlCacheManager implements CacheManager {
 
     }
 
+    /**
+     * The adapted cache and its unblocking view, together with the factory the underlying magnolia cache was obtained from.
+     */
+    private static class Adapted<K, V> {
+        private final CacheFactory factory;
+        private final AdaptedCache<K, V> cache;
+        private final UnblockingCache<K, V> unblocking;
+        private final Configuration<?, ?> configuration;
+        private volatile boolean stale = false;
+
+        private Adapted(CacheFactory factory, info.magnolia.module.cache.Cache mgnlCache, CacheManager manager, Configuration<?, ?> configuration) {
+            this.factory = factory;
+            this.configuration = configuration;
+            this.cache = new AdaptedCache<>(mgnlCache, manager, configuration);
+            this.unblocking = new UnblockingCache<>(cache);
+        }
+    }
+
+    @ToString
+    private static class NearCacheSettings {
+        private final int maxSize;
+        private final Duration timeToLive;
+
+        private NearCacheSettings(int maxSize, Duration timeToLive) {
+            this.maxSize = maxSize;
+            this.timeToLive = timeToLive;
+        }
+    }
+
     private static class SimpleMethodInvocation implements MethodInvocation {
         private final Object instance;
         private final Method method;
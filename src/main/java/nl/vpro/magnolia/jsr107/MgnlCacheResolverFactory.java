@@ -1,6 +1,7 @@
 package nl.vpro.magnolia.jsr107;
 
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
 
 import javax.cache.annotation.CacheMethodDetails;
 import javax.cache.annotation.CacheResolver;
@@ -10,6 +11,8 @@ import javax.inject.Inject;
 import javax.inject.Provider;
 
 /**
+ * Resolves the caches of {@link MgnlCacheManager}. The {@link DefaultCacheSettings} of a {@link CacheResult} method which are not part of magnolia's configuration
+ * are applied to its cache here.
  * @author Michiel Meeuwissen
  * @since 1.0
  */
@@ -24,6 +27,11 @@ class MgnlCacheResolverFactory implements CacheResolverFactory {
 
     @Override
     public CacheResolver getCacheResolver(CacheMethodDetails<? extends Annotation> cacheMethodDetails) {
+        final Method method = cacheMethodDetails.getMethod();
+        if (cacheMethodDetails.getCacheAnnotation() instanceof CacheResult &&
+            (method.isAnnotationPresent(DefaultCacheSettings.class) || method.isAnnotationPresent(Defaults.class))) {
+            manager.get().defaults(cacheMethodDetails.getCacheName(), CacheSettings.of(method));
+        }
         return new MgnlCacheResolver(manager, false);
     }
 
@@ -0,0 +1,101 @@
+package nl.vpro.magnolia.jsr107;
+
+import java.time.Duration;
+
+import javax.cache.configuration.CompleteConfiguration;
+import javax.cache.configuration.MutableConfiguration;
+
+/**
+ * A {@link MutableConfiguration} with some settings which are not part of JSR-107, but which are understood by {@link MgnlCacheManager#createCache(String, javax.cache.configuration.Configuration)}.
+ *
+ * If {@link #isWriteBehind()}, the {@link javax.cache.integration.CacheWriter} of a write-through cache is not called on every write, but writes
+ * are queued, coalesced per key, and handed to the writer in batches by a background thread.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+public class MgnlMutableConfiguration<K, V> extends MutableConfiguration<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final Duration DEFAULT_WRITE_BEHIND_MAX_DELAY = Duration.ofSeconds(1);
+    public static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 100;
+
+    private boolean writeBehind = false;
+    private Duration writeBehindMaxDelay = DEFAULT_WRITE_BEHIND_MAX_DELAY;
+    private int writeBehindBatchSize = DEFAULT_WRITE_BEHIND_BATCH_SIZE;
+
+    public MgnlMutableConfiguration() {
+    }
+
+    public MgnlMutableConfiguration(CompleteConfiguration<K, V> configuration) {
+        super(configuration);
+        if (configuration instanceof MgnlMutableConfiguration) {
+            MgnlMutableConfiguration<K, V> mgnl = (MgnlMutableConfiguration<K, V>) configuration;
+            this.writeBehind = mgnl.writeBehind;
+            this.writeBehindMaxDelay = mgnl.writeBehindMaxDelay;
+            this.writeBehindBatchSize = mgnl.writeBehindBatchSize;
+        }
+    }
+
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Only relevant if also {@link #setWriteThrough(boolean)} and a {@link #setCacheWriterFactory(javax.cache.configuration.Factory)} are set.
+     */
+    public MgnlMutableConfiguration<K, V> setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+        return this;
+    }
+
+    public Duration getWriteBehindMaxDelay() {
+        return writeBehindMaxDelay;
+    }
+
+    /**
+     * The maximal time a write may wait in the queue before it is handed to the writer.
+     */
+    public MgnlMutableConfiguration<K, V> setWriteBehindMaxDelay(Duration writeBehindMaxDelay) {
+        if (writeBehindMaxDelay == null || writeBehindMaxDelay.isNegative()) {
+            throw new IllegalArgumentException("Illegal max delay " + writeBehindMaxDelay);
+        }
+        this.writeBehindMaxDelay = writeBehindMaxDelay;
+        return this;
+    }
+
+    public int getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
+    /**
+     * The maximal number of entries given to the writer at once. If this many writes are queued, they are flushed without waiting for the max delay.
+     */
+    public MgnlMutableConfiguration<K, V> setWriteBehindBatchSize(int writeBehindBatchSize) {
+        if (writeBehindBatchSize < 1) {
+            throw new IllegalArgumentException("Illegal batch size " + writeBehindBatchSize);
+        }
+        this.writeBehindBatchSize = writeBehindBatchSize;
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (! super.equals(o) || ! (o instanceof MgnlMutableConfiguration)) {
+            return false;
+        }
+        MgnlMutableConfiguration<?, ?> that = (MgnlMutableConfiguration<?, ?>) o;
+        return writeBehind == that.writeBehind
+            && writeBehindBatchSize == that.writeBehindBatchSize
+            && writeBehindMaxDelay.equals(that.writeBehindMaxDelay);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + (writeBehind ? 1 : 0);
+        result = 31 * result + writeBehindMaxDelay.hashCode();
+        result = 31 * result + writeBehindBatchSize;
+        return result;
+    }
+}
@@ -26,11 +26,42 @@ public class MgnlObjectsAwareCacheKeyGenerator implements CacheKeyGenerator {
 
     private static final Map<Class<?>, Function<Object, Serializable>> REGISTERED_VALUE_TO_SERIALIZABLE = new LinkedHashMap<>();
 
-    
+    private static final Function<Object, Serializable> NOT_SERIALIZABLE = o -> {
+        throw new IllegalArgumentException("Not serializable " + o);
+    };
+
+    /**
+     * The function for every class of argument seen, i.e. the first registered one for a super class or interface of it. This is replaced on every registration.
+     */
+    private static volatile ClassValue<Function<Object, Serializable>> converters = converters();
+
+    @SuppressWarnings("unchecked")
     public static <T> void register(Class<T> clazz, Function<T, Serializable> function) {
-        REGISTERED_VALUE_TO_SERIALIZABLE.put(clazz, (Function<Object, Serializable>) function);
+        synchronized (REGISTERED_VALUE_TO_SERIALIZABLE) {
+            REGISTERED_VALUE_TO_SERIALIZABLE.put(clazz, (Function<Object, Serializable>) function);
+            converters = converters();
+        }
         log.info("Registered {} -> {}", clazz, function);
     }
+
+    private static ClassValue<Function<Object, Serializable>> converters() {
+        final List<Map.Entry<Class<?>, Function<Object, Serializable>>> registered;
+        synchronized (REGISTERED_VALUE_TO_SERIALIZABLE) {
+            registered = new ArrayList<>(REGISTERED_VALUE_TO_SERIALIZABLE.entrySet());
+        }
+        return new ClassValue<Function<Object, Serializable>>() {
+            @Override
+            protected Function<Object, Serializable> computeValue(Class<?> type) {
+                for (Map.Entry<Class<?>, Function<Object, Serializable>> e : registered) {
+                    if (e.getKey().isAssignableFrom(type)) {
+                        return e.getValue();
+                    }
+                }
+                return NOT_SERIALIZABLE;
+            }
+        };
+    }
+
     static {
         register(Node.class, NodeUtil::getPathIfPossible);
         // Let's support some non core magnolia classes to, for which we know a logical serializable key
@@ -65,22 +96,27 @@ public class MgnlObjectsAwareCacheKeyGenerator implements CacheKeyGenerator {
     
     @Override
     public GeneratedCacheKey generateCacheKey(CacheKeyInvocationContext<? extends Annotation> cacheKeyInvocationContext) {
-        List<Serializable> result = new ArrayList<>();
-        OUTER:
-        for (CacheInvocationParameter cacheInvocationParameter : cacheKeyInvocationContext.getKeyParameters()) {
-            Object value = cacheInvocationParameter.getValue();
-            for (Map.Entry<Class<?>, Function<Object, Serializable>> e : REGISTERED_VALUE_TO_SERIALIZABLE.entrySet()) {
-                if (e.getKey().isInstance(value)) {
-                    result.add(e.getValue().apply(value));
-                    continue OUTER;
+        final CacheInvocationParameter[] parameters = cacheKeyInvocationContext.getKeyParameters();
+        final ClassValue<Function<Object, Serializable>> functions = converters;
+        switch (parameters.length) {
+            case 0:
+                return SerializableGeneratedCacheKey.EMPTY;
+            case 1:
+                return SerializableGeneratedCacheKey.of(convert(functions, parameters[0]));
+            case 2:
+                return SerializableGeneratedCacheKey.of(convert(functions, parameters[0]), convert(functions, parameters[1]));
+            default:
+                final Serializable[] result = new Serializable[parameters.length];
+                for (int i = 0; i < parameters.length; i++) {
+                    result[i] = convert(functions, parameters[i]);
                 }
-            }
-            throw new IllegalArgumentException("Not serializable " + value);
+                return new SerializableGeneratedCacheKey(result);
         }
-
-        return new SerializableGeneratedCacheKey(result.toArray(new Serializable[result.size()]));
     }
 
-
+    private static Serializable convert(ClassValue<Function<Object, Serializable>> functions, CacheInvocationParameter parameter) {
+        final Object value = parameter.getValue();
+        return (value == null ? NOT_SERIALIZABLE : functions.get(value.getClass())).apply(value);
+    }
 }
 
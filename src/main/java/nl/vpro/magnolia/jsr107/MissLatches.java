@@ -0,0 +1,82 @@
+package nl.vpro.magnolia.jsr107;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.*;
+
+/**
+ * Replaces the locking of magnolia's {@link info.magnolia.module.cache.BlockingCache} for caches with their own blocking timeout. The first thread
+ * missing a key claims it, and is expected to put a value. Other threads missing the same key wait until that happens, but at most the timeout. After that
+ * they give up, and the claim is forgotten, so a thread that never puts anything can't keep others waiting. Claims that nobody waited for are pruned
+ * once there are more than {@link #MAX_CLAIMS}.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+@Slf4j
+class MissLatches<K> {
+
+    static final int MAX_CLAIMS = 10_000;
+
+    private final ConcurrentMap<K, Claim> claimed = new ConcurrentHashMap<>();
+
+    /**
+     * @return <code>true</code> if the key was claimed by the current thread, which then should calculate the value. <code>false</code> if some other
+     * thread did that, and it was released in time.
+     */
+    boolean claimOrAwait(K key, Duration timeout) {
+        final Claim theirs = claimed.putIfAbsent(key, new Claim());
+        if (theirs == null) {
+            if (claimed.size() > MAX_CLAIMS) {
+                prune(timeout);
+            }
+            return true;
+        }
+        try {
+            theirs.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            return false;
+        } catch (TimeoutException te) {
+            log.warn("Waited {} for {}, not waiting any more", timeout, key);
+            claimed.remove(key, theirs);
+            return true;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return true;
+        } catch (ExecutionException ee) {
+            // never completed exceptionally
+            return true;
+        }
+    }
+
+    /**
+     * Releases the threads waiting for the key, if any.
+     */
+    void release(K key) {
+        if (claimed.isEmpty()) {
+            return;
+        }
+        final Claim claim = claimed.remove(key);
+        if (claim != null) {
+            claim.complete(null);
+        }
+    }
+
+    private void prune(Duration timeout) {
+        final long before = System.nanoTime() - timeout.toNanos();
+        claimed.entrySet().removeIf(e -> {
+            if (e.getValue().created - before < 0) {
+                e.getValue().complete(null);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    int size() {
+        return claimed.size();
+    }
+
+    private static class Claim extends CompletableFuture<Void> {
+        private final long created = System.nanoTime();
+    }
+}
@@ -0,0 +1,159 @@
+package nl.vpro.magnolia.jsr107;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A small on-heap cache in front of an {@link AdaptedCache}, holding the {@link CacheValue}s of the most used keys as they were read, so reading them again
+ * needs no disk access or deserialization.
+ *
+ * When full, entries are evicted with a 'second chance' scan: entries read since the previous scan are kept. Entries expire after the time to live of the
+ * near cache, or earlier if the underlying cache would expire them. To not hold on to stale values, every invalidation increments the version of the key,
+ * and values read while that changed are not kept. The versions are striped, so a write only stops concurrent reads of the keys in the same stripe from
+ * being kept.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+class NearCache<K> {
+
+    private final int maxSize;
+    private final long timeToLive;
+    private final ConcurrentMap<K, Entry> entries = new ConcurrentHashMap<>();
+    private static final int STRIPES = 64;
+
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    NearCache(int maxSize, Duration timeToLive) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Size must be positive " + maxSize);
+        }
+        if (timeToLive.isNegative() || timeToLive.isZero()) {
+            throw new IllegalArgumentException("Time to live must be positive " + timeToLive);
+        }
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive.toMillis();
+    }
+
+    /**
+     * @return The value as stored in the underlying cache, or <code>null</code>
+     */
+    Object get(K key) {
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires <= System.currentTimeMillis()) {
+            entries.remove(key, entry);
+            return null;
+        }
+        if (! entry.used) {
+            entry.used = true;
+        }
+        return entry.value;
+    }
+
+    /**
+     * To be called before reading the key from the underlying cache.
+     * @return The value to pass to {@link #put(Object, Object, long, long)}
+     */
+    long stamp(K key) {
+        return versions.get(stripe(key));
+    }
+
+    /**
+     * Keeps a value read from the underlying cache, unless the key was invalidated since it was read, or it expires already.
+     * @param expires When the underlying cache will expire the value (in millis since the epoch), or {@link Long#MAX_VALUE}
+     */
+    void put(K key, Object value, long expires, long stamp) {
+        final int stripe = stripe(key);
+        if (versions.get(stripe) != stamp) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (expires <= now) {
+            // would not be returned anyway, and must not cause evictions
+            return;
+        }
+        if (entries.size() >= maxSize && ! evict()) {
+            return;
+        }
+        final Entry entry = new Entry(value, Math.min(now + timeToLive, expires));
+        entries.put(key, entry);
+        if (versions.get(stripe) != stamp) {
+            // invalidated in the mean time, perhaps before we put it
+            entries.remove(key, entry);
+        }
+    }
+
+    void invalidate(K key) {
+        versions.incrementAndGet(stripe(key));
+        entries.remove(key);
+    }
+
+    void clear() {
+        for (int i = 0; i < STRIPES; i++) {
+            versions.incrementAndGet(i);
+        }
+        entries.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    Duration getTimeToLive() {
+        return Duration.ofMillis(timeToLive);
+    }
+
+    private static int stripe(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & (STRIPES - 1);
+    }
+
+    /**
+     * @return Whether there is room now. If another thread is evicting already, this one doesn't wait for that.
+     */
+    private boolean evict() {
+        if (! evicting.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            final long now = System.currentTimeMillis();
+            for (int pass = 0; pass < 2 && entries.size() >= maxSize; pass++) {
+                final Iterator<Entry> i = entries.values().iterator();
+                while (i.hasNext() && entries.size() >= maxSize) {
+                    final Entry entry = i.next();
+                    if (entry.used && entry.expires > now) {
+                        entry.used = false;
+                    } else {
+                        i.remove();
+                    }
+                }
+            }
+            return true;
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long expires;
+        private volatile boolean used;
+
+        private Entry(Object value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
@@ -1,17 +1,56 @@
 package nl.vpro.magnolia.jsr107;
 
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import javax.cache.Cache;
 import javax.cache.annotation.GeneratedCacheKey;
 
+import org.aopalliance.intercept.MethodInvocation;
 import org.jsr107.ri.annotations.guice.CacheResultInterceptor;
 
 /**
  * For the exception cache, we don't want to block!
+ *
+ * {@link ExceptionBackoff} and {@link DefaultCacheSettings#staleIfErrorSeconds()} are only implemented by the {@link FusedCacheResultInterceptor}. A
+ * warning is logged for methods using them with this one.
  * @author Michiel Meeuwissen
  * @since 1.8
  */
+@Slf4j
 public class NonBlockingCacheResultInterceptor extends CacheResultInterceptor {
 
+    /**
+     * The methods of which the settings were checked already.
+     */
+    private final Set<Method> checked = ConcurrentHashMap.newKeySet();
+
+    /**
+     * While the {@link RefreshAheadInterceptor} recalculates a value, the cache must not be consulted.
+     */
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (RefreshAheadInterceptor.isRefreshing(invocation)) {
+            return invocation.proceed();
+        }
+        if (checked.add(invocation.getMethod())) {
+            check(invocation.getMethod());
+        }
+        return super.invoke(invocation);
+    }
+
+    private static void check(Method method) {
+        if (FailedKeys.backoffs(method).length > 0) {
+            log.warn("{} has @ExceptionBackoff, which is ignored by the chain of interceptors. Use new CacheConfigurer(true)", method);
+        }
+        if (CacheSettings.of(method).getStaleIfErrorSeconds() > 0) {
+            log.warn("{} has staleIfErrorSeconds, which is ignored by the chain of interceptors. Use new CacheConfigurer(true)", method);
+        }
+    }
+
     @Override
     protected void checkForCachedException(final Cache<Object, Throwable> exceptionCache, final GeneratedCacheKey cacheKey)
         throws Throwable {
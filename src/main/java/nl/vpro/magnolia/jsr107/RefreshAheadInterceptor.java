@@ -0,0 +1,154 @@
+package nl.vpro.magnolia.jsr107;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.cache.Cache;
+import javax.cache.annotation.CacheKeyGenerator;
+import javax.cache.annotation.CacheResult;
+import javax.cache.annotation.GeneratedCacheKey;
+import javax.inject.Inject;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.jsr107.ri.annotations.*;
+
+import com.google.inject.matcher.AbstractMatcher;
+import com.google.inject.matcher.Matcher;
+
+/**
+ * Implements {@link DefaultCacheSettings#refreshAfterSeconds()}. If the value in the cache is older than that, it is still returned, but one
+ * background thread calls the method again, and replaces the value in the cache with the result. If that fails, the old value remains.
+ *
+ * It is only bound to the methods for which this is configured, see {@link #MATCHER}, and only in front of the chain of interceptors. The
+ * {@link FusedCacheResultInterceptor} checks the age of the value it reads itself, and uses {@link #refresh(MethodInvocation, AdaptedCache, GeneratedCacheKey)}.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+@Slf4j
+class RefreshAheadInterceptor extends AbstractCacheResultInterceptor<MethodInvocation> implements MethodInterceptor {
+
+    private static final ThreadLocal<Refresh> REFRESHING = new ThreadLocal<>();
+
+    static final Matcher<Method> MATCHER = new AbstractMatcher<Method>() {
+        @Override
+        public boolean matches(Method method) {
+            return method.isAnnotationPresent(CacheResult.class) && CacheSettings.of(method).getRefreshAfterSeconds() > 0;
+        }
+
+        @Override
+        public String toString() {
+            return "refreshAfterSeconds > 0";
+        }
+    };
+
+    /**
+     * The caches and keys currently being refreshed
+     */
+    private static final Set<List<Object>> REFRESHING_KEYS = ConcurrentHashMap.newKeySet();
+
+    private CacheContextSource<MethodInvocation> cacheContextSource;
+
+    /**
+     * Whether the invocation is the one recalculating a value. The other interceptors then must not use the cache. Only the refreshed invocation itself
+     * is, not the cached methods it calls in turn: the first invocation of the refreshed method that enters an interceptor claims the refresh, and
+     * is recognized by its arguments array, which is the same for all interceptors it passes.
+     */
+    static boolean isRefreshing(MethodInvocation invocation) {
+        final Refresh refresh = REFRESHING.get();
+        if (refresh == null) {
+            return false;
+        }
+        if (refresh.arguments == null) {
+            if (! refresh.method.equals(invocation.getMethod())) {
+                return false;
+            }
+            refresh.arguments = invocation.getArguments();
+            return true;
+        }
+        return refresh.arguments == invocation.getArguments();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (! isRefreshing(invocation)) {
+            final InternalCacheKeyInvocationContext<? extends Annotation> cacheKeyInvocationContext = cacheContextSource.getCacheKeyInvocationContext(invocation);
+            final CacheResultMethodDetails methodDetails = getStaticCacheKeyInvocationContext(cacheKeyInvocationContext, InterceptorType.CACHE_RESULT);
+            final Cache<Object, Object> cache = methodDetails.getCacheResolver().resolveCache(cacheKeyInvocationContext);
+            if (cache instanceof AdaptedCache) {
+                final CacheKeyGenerator cacheKeyGenerator = methodDetails.getCacheKeyGenerator();
+                final GeneratedCacheKey cacheKey = cacheKeyGenerator.generateCacheKey(cacheKeyInvocationContext);
+                final AdaptedCache<Object, Object> adaptedCache = (AdaptedCache<Object, Object>) cache;
+                final CacheValue<Object> stored = adaptedCache.getCacheValue(cacheKey);
+                final long refreshAfter = CacheSettings.of(invocation.getMethod()).getRefreshAfterSeconds() * 1000L;
+                if (stored != null && System.currentTimeMillis() - stored.getCreated() > refreshAfter) {
+                    refresh(invocation, adaptedCache, cacheKey);
+                }
+            }
+        }
+        return invocation.proceed();
+    }
+
+    /**
+     * Calls the method again on the executor of the cache, unless that happens already, and stores the result.
+     */
+    static void refresh(MethodInvocation invocation, AdaptedCache<Object, Object> cache, GeneratedCacheKey cacheKey) {
+        final List<Object> id = Arrays.asList(cache.getName(), cacheKey);
+        if (! REFRESHING_KEYS.add(id)) {
+            return;
+        }
+        // calling the method on the intercepted instance, so that it passes the interceptors again. Those see that we're refreshing.
+        final Object target = invocation.getThis();
+        final Method method = invocation.getMethod();
+        final Object[] arguments = invocation.getArguments().clone();
+        try {
+            cache.executor().execute(() -> {
+                REFRESHING.set(new Refresh(method));
+                try {
+                    method.setAccessible(true);
+                    final Object value = method.invoke(target, arguments);
+                    cache.put(cacheKey, value == null ? AdaptedCache.NULL : value);
+                    log.debug("Refreshed {} {}", cache.getName(), cacheKey);
+                } catch (InvocationTargetException ite) {
+                    log.warn("Refreshing {} {} failed, keeping the old value: {}", cache.getName(), cacheKey, ite.getCause().getMessage());
+                } catch (Exception e) {
+                    log.error("Refreshing {} {}: {}", cache.getName(), cacheKey, e.getMessage(), e);
+                } finally {
+                    REFRESHING.remove();
+                    REFRESHING_KEYS.remove(id);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            REFRESHING_KEYS.remove(id);
+            log.warn("Could not refresh {} {}: {}", cache.getName(), cacheKey, ree.getMessage());
+        }
+    }
+
+    @Override
+    protected Object proceed(MethodInvocation invocation) throws Throwable {
+        return invocation.proceed();
+    }
+
+    @Inject
+    public void setCacheContextSource(CacheContextSource<MethodInvocation> cacheContextSource) {
+        this.cacheContextSource = cacheContextSource;
+    }
+
+    private static class Refresh {
+        private final Method method;
+        private Object[] arguments;
+
+        private Refresh(Method method) {
+            this.method = method;
+        }
+    }
+}
@@ -33,8 +33,10 @@ class ReturnCacheValueInterceptor extends AbstractCacheResultInterceptor<MethodI
             }
             return o;
         } catch (Throwable t) {
-            //Putting _something_ in the cache, otherwise Blocking timeout exceptions in magnolia....
-            cache(invocation, AdaptedCache.EXCEPTION);
+            if (! RefreshAheadInterceptor.isRefreshing(invocation)) {
+                //Putting _something_ in the cache, otherwise Blocking timeout exceptions in magnolia....
+                cache(invocation, AdaptedCache.EXCEPTION);
+            }
             throw t;
         }
     }
@@ -4,17 +4,27 @@ import lombok.ToString;
 
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.Objects;
 
 import javax.cache.annotation.GeneratedCacheKey;
 
 
 /**
  * Like {@link org.jsr107.ri.annotations.DefaultGeneratedCacheKey} but with toString, also it only accepts serializable parameters.
+ *
+ * Use {@link #of(Serializable...)} to get a key. For one or two parameters that is a specialised key without an array, and without parameters it is always
+ * {@link #EMPTY}. Keys with the same parameters are equal, whatever their class.
  */
 @ToString
 public class SerializableGeneratedCacheKey implements GeneratedCacheKey {
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The key for methods without (key) parameters.
+     * @since 1.15
+     */
+    public static final SerializableGeneratedCacheKey EMPTY = new SerializableGeneratedCacheKey();
+
     private final Serializable[] parameters;
     private final int hashCode;
 
@@ -28,6 +38,60 @@ public class SerializableGeneratedCacheKey implements GeneratedCacheKey {
         this.hashCode = Arrays.deepHashCode(parameters);
     }
 
+    /**
+     * For the specialised keys, which store their parameters themselves. The hash code must be the one {@link Arrays#deepHashCode(Object[])} would give.
+     */
+    SerializableGeneratedCacheKey(int hashCode) {
+        this.parameters = null;
+        this.hashCode = hashCode;
+    }
+
+    /**
+     * @since 1.15
+     */
+    public static SerializableGeneratedCacheKey of(Serializable parameter) {
+        if (parameter != null && parameter.getClass().isArray()) {
+            return new SerializableGeneratedCacheKey(new Serializable[] {parameter});
+        }
+        return new One(parameter);
+    }
+
+    /**
+     * @since 1.15
+     */
+    public static SerializableGeneratedCacheKey of(Serializable first, Serializable second) {
+        if ((first != null && first.getClass().isArray()) || (second != null && second.getClass().isArray())) {
+            return new SerializableGeneratedCacheKey(first, second);
+        }
+        return new Two(first, second);
+    }
+
+    /**
+     * @since 1.15
+     */
+    public static SerializableGeneratedCacheKey of(Serializable... parameters) {
+        switch (parameters.length) {
+            case 0:
+                return EMPTY;
+            case 1:
+                return of(parameters[0]);
+            case 2:
+                return of(parameters[0], parameters[1]);
+            default:
+                return new SerializableGeneratedCacheKey(parameters);
+        }
+    }
+
+    Serializable[] getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Compares the parameters with those of another key with the same hash code.
+     */
+    boolean equalParameters(SerializableGeneratedCacheKey other) {
+        return Arrays.deepEquals(getParameters(), other.getParameters());
+    }
 
     @Override
     public int hashCode() {
@@ -39,16 +103,71 @@ public class SerializableGeneratedCacheKey implements GeneratedCacheKey {
         if (this == obj) {
             return true;
         }
-        if (obj == null) {
-            return false;
-        }
-        if (getClass() != obj.getClass()) {
+        if (!(obj instanceof SerializableGeneratedCacheKey)) {
             return false;
         }
         if (this.hashCode != obj.hashCode()) {
             return false;
         }
-        SerializableGeneratedCacheKey other = (SerializableGeneratedCacheKey) obj;
-        return Arrays.deepEquals(this.parameters, other.parameters);
+        return equalParameters((SerializableGeneratedCacheKey) obj);
     }
+
+    /**
+     * The key for exactly one parameter, which is not an array.
+     */
+    @ToString(callSuper = false)
+    static class One extends SerializableGeneratedCacheKey {
+        private static final long serialVersionUID = 1L;
+
+        private final Serializable parameter;
+
+        private One(Serializable parameter) {
+            super(31 + Objects.hashCode(parameter));
+            this.parameter = parameter;
+        }
+
+        @Override
+        Serializable[] getParameters() {
+            return new Serializable[] {parameter};
+        }
+
+        @Override
+        boolean equalParameters(SerializableGeneratedCacheKey other) {
+            if (other instanceof One) {
+                return Objects.equals(parameter, ((One) other).parameter);
+            }
+            return super.equalParameters(other);
+        }
+    }
+
+    /**
+     * The key for exactly two parameters, which are not arrays.
+     */
+    @ToString(callSuper = false)
+    static class Two extends SerializableGeneratedCacheKey {
+        private static final long serialVersionUID = 1L;
+
+        private final Serializable first;
+        private final Serializable second;
+
+        private Two(Serializable first, Serializable second) {
+            super(31 * (31 + Objects.hashCode(first)) + Objects.hashCode(second));
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        Serializable[] getParameters() {
+            return new Serializable[] {first, second};
+        }
+
+        @Override
+        boolean equalParameters(SerializableGeneratedCacheKey other) {
+            if (other instanceof Two) {
+                final Two two = (Two) other;
+                return Objects.equals(first, two.first) && Objects.equals(second, two.second);
+            }
+            return super.equalParameters(other);
+        }
     }
+}
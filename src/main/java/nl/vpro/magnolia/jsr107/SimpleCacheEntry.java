@@ -0,0 +1,39 @@
+package nl.vpro.magnolia.jsr107;
+
+import javax.cache.Cache;
+
+/**
+ * An immutable {@link Cache.Entry}, as given to {@link javax.cache.integration.CacheWriter}s.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+class SimpleCacheEntry<K, V> implements Cache.Entry<K, V> {
+
+    private final K key;
+    private final V value;
+
+    SimpleCacheEntry(K key, V value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    @Override
+    public K getKey() {
+        return key;
+    }
+
+    @Override
+    public V getValue() {
+        return value;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> clazz) {
+        throw new IllegalArgumentException("Cannot unwrap to " + clazz);
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + value;
+    }
+}
@@ -0,0 +1,88 @@
+package nl.vpro.magnolia.jsr107;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Makes sure that for every key only one thread at a time calls the (expensive) function to obtain its value. Threads asking for the same key
+ * in the mean time wait for that result, rather than calling the function themselves.
+ *
+ * This uses no locks, only a map of the computations currently in progress. Waiting threads give up after {@link #getMaxWait()}, and then call
+ * the function themselves, so a hanging computation can't make all other threads hang with it.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+@Slf4j
+class SingleFlight<K, V> {
+
+    static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(30);
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private volatile Duration maxWait = DEFAULT_MAX_WAIT;
+
+    V get(K key, Function<? super K, ? extends V> function) {
+        final CompletableFuture<V> mine = new CompletableFuture<>();
+        final CompletableFuture<V> theirs = inFlight.putIfAbsent(key, mine);
+        if (theirs != null) {
+            return await(key, theirs, function);
+        }
+        try {
+            final V value = function.apply(key);
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    Duration getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * @param maxWait How long threads wait for the computation of another thread. <code>null</code> means forever.
+     */
+    void setMaxWait(Duration maxWait) {
+        if (maxWait != null && maxWait.isNegative()) {
+            throw new IllegalArgumentException("Negative max wait " + maxWait);
+        }
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * The number of computations currently in progress.
+     */
+    int size() {
+        return inFlight.size();
+    }
+
+    private V await(K key, CompletableFuture<V> future, Function<? super K, ? extends V> function) {
+        final Duration wait = maxWait;
+        try {
+            return wait == null ? future.get() : future.get(wait.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException te) {
+            log.warn("Waited {} for {}, calculating it myself", wait, key);
+            return function.apply(key);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for {}, calculating it myself", key);
+            return function.apply(key);
+        } catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CompletionException(cause);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package nl.vpro.magnolia.jsr107;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed number of locks, one of which is picked by the hash code of a key. This is used to make compound operations on magnolia caches
+ * atomic, when the cache itself can't do that. Keys which happen to share a lock just wait for each other.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+class StripedLocks {
+
+    static final int DEFAULT_STRIPES = 64;
+
+    private final Lock[] locks;
+
+    StripedLocks() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes The number of locks. Rounded up to a power of two.
+     */
+    StripedLocks(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        locks = new Lock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    Lock get(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return locks[h & (locks.length - 1)];
+    }
+}
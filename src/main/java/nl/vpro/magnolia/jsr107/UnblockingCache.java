@@ -18,6 +18,8 @@ import javax.cache.processor.EntryProcessorResult;
 /**
  * For some cases a blocking cache is realy undesirable.
  * Magnolia only provides blocking caches (?) This 'unblocks' it after the fact.
+ *
+ * To still protect against concurrent read-through of the same key, that is coalesced by {@link SingleFlight}.
  * @author Michiel Meeuwissen
  * @since 1.11
  */
@@ -0,0 +1,27 @@
+package nl.vpro.magnolia.jsr107;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Writes and reads cached values of a certain type, as an alternative to java serialization, when they are stored in off-heap or disk tiers by the
+ * {@link CompactSerializer}. Register implementations with {@link ValueSerializers}.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+public interface ValueSerializer<T> {
+
+    void write(T value, DataOutput out) throws IOException;
+
+    T read(DataInput in) throws IOException;
+
+    /**
+     * Values which must survive {@link #write(Object, DataOutput)} and {@link #read(DataInput)} unchanged, used by {@link ValueSerializers#check()}.
+     */
+    default Collection<T> examples() {
+        return Collections.emptyList();
+    }
+}
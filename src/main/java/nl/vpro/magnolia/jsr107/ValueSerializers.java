@@ -0,0 +1,119 @@
+package nl.vpro.magnolia.jsr107;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The registry of {@link ValueSerializer}s. A serializer can be registered for a value type, in which case it is used for all values of that type, or for a
+ * cache name, in which case it is used for all (not <code>null</code>) values of that cache.
+ *
+ * The registrations are identified by the name of the type or cache, which is stored with every value, so they must be done before anything is read from
+ * off-heap or disk tiers, e.g. in the constructor of your module.
+ * <pre>{@code
+   ValueSerializers.register(Movie.class, new MovieSerializer());
+}</pre>
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+@Slf4j
+public class ValueSerializers {
+
+    static final String CACHE_PREFIX = "cache:";
+
+    private static final Map<Class<?>, ValueSerializer<?>> FOR_TYPE = new ConcurrentHashMap<>();
+    private static final Map<String, ValueSerializer<?>> BY_ID = new ConcurrentHashMap<>();
+
+    private ValueSerializers() {
+    }
+
+    public static <T> void register(Class<T> type, ValueSerializer<T> serializer) {
+        FOR_TYPE.put(type, serializer);
+        BY_ID.put(type.getName(), serializer);
+        log.info("Registered {} -> {}", type, serializer);
+    }
+
+    public static void register(String cacheName, ValueSerializer<?> serializer) {
+        BY_ID.put(CACHE_PREFIX + cacheName, serializer);
+        log.info("Registered {} -> {}", cacheName, serializer);
+    }
+
+    public static void unregister(Class<?> type) {
+        FOR_TYPE.remove(type);
+        BY_ID.remove(type.getName());
+    }
+
+    public static void unregister(String cacheName) {
+        BY_ID.remove(CACHE_PREFIX + cacheName);
+    }
+
+    /**
+     * @return The identifier of the serializer registered for the cache, or <code>null</code>
+     */
+    static String forCache(String cacheName) {
+        if (BY_ID.isEmpty()) {
+            return null;
+        }
+        final String id = CACHE_PREFIX + cacheName;
+        return BY_ID.containsKey(id) ? id : null;
+    }
+
+    /**
+     * @return The identifier of the serializer registered for exactly the type of the value, or <code>null</code>
+     */
+    static String forValue(Object value) {
+        if (value == null || FOR_TYPE.isEmpty()) {
+            return null;
+        }
+        return FOR_TYPE.containsKey(value.getClass()) ? value.getClass().getName() : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    static ValueSerializer<Object> get(String id) {
+        return (ValueSerializer<Object>) BY_ID.get(id);
+    }
+
+    /**
+     * The identifiers of the registrations, i.e. the names of the types and of the caches (prefixed with {@value #CACHE_PREFIX}).
+     */
+    public static Set<String> getRegistered() {
+        return Collections.unmodifiableSet(new TreeSet<>(BY_ID.keySet()));
+    }
+
+    /**
+     * Writes and reads all {@link ValueSerializer#examples()} of all registered serializers, as the {@link CompactSerializer} would. Call this in a test of your
+     * application to verify your serializers.
+     * @throws IllegalStateException If some example didn't survive that, or some serializer has no examples.
+     */
+    public static void check() {
+        final CompactSerializer serializer = new CompactSerializer(ValueSerializers.class.getClassLoader());
+        final List<String> failures = new ArrayList<>();
+        for (String id : getRegistered()) {
+            final ValueSerializer<Object> valueSerializer = get(id);
+            if (valueSerializer.examples().isEmpty()) {
+                failures.add(id + ": no examples");
+            }
+            for (Object example : valueSerializer.examples()) {
+                final CacheValue<Object> value = CacheValue.of(example);
+                value.setSerializer(id);
+                try {
+                    final ByteBuffer bytes = serializer.serialize(value);
+                    final Object read = ((CacheValue<?>) serializer.read(bytes)).orNull();
+                    if (! Objects.equals(example, read)) {
+                        failures.add(id + ": " + example + " != " + read);
+                    }
+                    if (bytes.hasRemaining()) {
+                        failures.add(id + ": " + bytes.remaining() + " bytes left for " + example);
+                    }
+                } catch (Exception e) {
+                    failures.add(id + ": " + example + " " + e.getClass().getName() + " " + e.getMessage());
+                }
+            }
+        }
+        if (! failures.isEmpty()) {
+            throw new IllegalStateException(String.join("\n", failures));
+        }
+    }
+}
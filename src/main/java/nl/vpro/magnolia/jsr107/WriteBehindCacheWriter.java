@@ -0,0 +1,160 @@
+package nl.vpro.magnolia.jsr107;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.cache.Cache;
+import javax.cache.integration.CacheWriter;
+
+/**
+ * Wraps a {@link CacheWriter}, queueing the writes and deletes instead of performing them right away. Only the last write or delete for every key is remembered,
+ * and they are handed to the wrapped writer with {@link CacheWriter#writeAll(Collection)} and {@link CacheWriter#deleteAll(Collection)}, in batches of at
+ * most <code>batchSize</code>. This happens on the executor, at the latest <code>maxDelay</code> after a write was queued, or as soon as a full batch is available.
+ * The keys are handed over in the order in which they were first queued, so the oldest writes go first.
+ *
+ * If the wrapped writer fails, the entries it did not write are logged and dropped.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+@Slf4j
+class WriteBehindCacheWriter<K, V> implements CacheWriter<K, V>, Closeable {
+
+    private static final Object DELETE = new Object();
+
+    private final String name;
+    private final CacheWriter<K, V> writer;
+    private final Duration maxDelay;
+    private final int batchSize;
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+
+    /**
+     * The queued values, or {@link #DELETE}. Wrapped in an {@link Optional} since <code>null</code> is a valid value. Guarded by itself. A key queued again
+     * keeps its place.
+     */
+    private final Map<K, Object> pending = new LinkedHashMap<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    WriteBehindCacheWriter(String name, CacheWriter<K, V> writer, Duration maxDelay, int batchSize, ScheduledExecutorService scheduler, Executor executor) {
+        this.name = name;
+        this.writer = writer;
+        this.maxDelay = maxDelay;
+        this.batchSize = batchSize;
+        this.scheduler = scheduler;
+        this.executor = executor;
+    }
+
+    @Override
+    public void write(Cache.Entry<? extends K, ? extends V> entry) {
+        enqueue(entry.getKey(), Optional.ofNullable(entry.getValue()));
+    }
+
+    @Override
+    public void writeAll(Collection<Cache.Entry<? extends K, ? extends V>> entries) {
+        for (Iterator<Cache.Entry<? extends K, ? extends V>> i = entries.iterator(); i.hasNext(); ) {
+            write(i.next());
+            i.remove();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void delete(Object key) {
+        enqueue((K) key, DELETE);
+    }
+
+    @Override
+    public void deleteAll(Collection<?> keys) {
+        for (Iterator<?> i = keys.iterator(); i.hasNext(); ) {
+            delete(i.next());
+            i.remove();
+        }
+    }
+
+    int getPending() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    private void enqueue(K key, Object write) {
+        synchronized (pending) {
+            pending.put(key, write);
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (getPending() >= batchSize) {
+            if (flushRequested.compareAndSet(false, true)) {
+                executor.execute(this::flush);
+            }
+        } else if (scheduled.compareAndSet(false, true)) {
+            scheduler.schedule(() -> executor.execute(this::flush), maxDelay.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Hands what is queued now to the wrapped writer. Flushes never run concurrently, so for every key the writes arrive in order.
+     */
+    synchronized void flush() {
+        scheduled.set(false);
+        flushRequested.set(false);
+        // don't keep on flushing if writes keep coming in, those are for the next flush
+        for (int todo = getPending(); todo > 0 && getPending() > 0; todo -= batchSize) {
+            flushBatch();
+        }
+        if (getPending() > 0) {
+            schedule();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void flushBatch() {
+        final List<Cache.Entry<? extends K, ? extends V>> writes = new ArrayList<>();
+        final List<K> deletes = new ArrayList<>();
+        synchronized (pending) {
+            for (Iterator<Map.Entry<K, Object>> i = pending.entrySet().iterator(); i.hasNext() && writes.size() + deletes.size() < batchSize; ) {
+                final Map.Entry<K, Object> e = i.next();
+                if (e.getValue() == DELETE) {
+                    deletes.add(e.getKey());
+                } else {
+                    writes.add(new SimpleCacheEntry<>(e.getKey(), ((Optional<V>) e.getValue()).orElse(null)));
+                }
+                i.remove();
+            }
+        }
+        if (! writes.isEmpty()) {
+            try {
+                writer.writeAll(writes);
+            } catch (RuntimeException e) {
+                log.error("Write behind for {} failed. Dropped {}: {}", name, writes, e.getMessage(), e);
+            }
+        }
+        if (! deletes.isEmpty()) {
+            try {
+                writer.deleteAll(deletes);
+            } catch (RuntimeException e) {
+                log.error("Write behind for {} failed. Not deleted {}: {}", name, deletes, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Writes everything that is still queued, on the current thread.
+     */
+    @Override
+    public synchronized void close() {
+        while (getPending() > 0) {
+            flushBatch();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package nl.vpro.magnolia.jsr107;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.cache.configuration.MutableCacheEntryListenerConfiguration;
+import javax.cache.event.*;
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CompletionListenerFuture;
+import javax.cache.processor.EntryProcessorException;
+import javax.cache.processor.EntryProcessorResult;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Tests which {@link AdaptedCache} must pass whatever magnolia cache it adapts.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+public abstract class AbstractAdaptedCacheTest {
+
+    protected AdaptedCache<String, String> cache;
+
+    /**
+     * The magnolia cache to adapt in the tests.
+     */
+    protected abstract info.magnolia.module.cache.Cache createCache(String name);
+
+    @Before
+    public void createAdaptedCache() {
+        cache = new AdaptedCache<>(createCache("test"), null, null);
+    }
+
+    @Test
+    public void loadAll() throws Exception {
+        cache.put("bla", "existing");
+        cache.setCacheLoader(new CacheLoader<String, String>() {
+            @Override
+            public String load(String key) {
+                return key.equals("null") ? null : "loaded " + key;
+            }
+
+            @Override
+            public Map<String, String> loadAll(Iterable<? extends String> keys) {
+                Map<String, String> result = new HashMap<>();
+                for (String key : keys) {
+                    result.put(key, load(key));
+                }
+                return result;
+            }
+        });
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < 250; i++) {
+            keys.add("key" + i);
+        }
+        keys.add("bla");
+        keys.add("null");
+        CompletionListenerFuture future = new CompletionListenerFuture();
+        cache.loadAll(keys, false, future);
+        future.get();
+
+        assertThat(cache.get("key0")).isEqualTo("loaded key0");
+        assertThat(cache.get("key249")).isEqualTo("loaded key249");
+        assertThat(cache.get("bla")).isEqualTo("existing");
+        assertThat(cache.containsKey("null")).isFalse();
+
+        future = new CompletionListenerFuture();
+        cache.loadAll(keys, true, future);
+        future.get();
+        assertThat(cache.get("bla")).isEqualTo("loaded bla");
+    }
+
+    @Test
+    public void putIfAbsentConcurrently() throws Exception {
+        final int threads = 20;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger succeeded = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final String value = "value" + i;
+            workers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ignored) {
+                }
+                if (cache.putIfAbsent("bla", value)) {
+                    succeeded.incrementAndGet();
+                }
+            });
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertThat(succeeded.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void getAndPutConcurrently() throws Exception {
+        final int threads = 20;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Set<String> previous = Collections.synchronizedSet(new HashSet<>());
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final String value = "value" + i;
+            workers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ignored) {
+                }
+                previous.add(String.valueOf(cache.getAndPut("bla", value)));
+            });
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        // every value was replaced exactly once, except the last one, and the first put saw nothing
+        assertThat(previous).hasSize(threads);
+        assertThat(previous).contains("null");
+        assertThat(previous).doesNotContain(cache.get("bla"));
+    }
+
+    @Test
+    public void invoke() throws Exception {
+        assertThat(cache.invoke("bla", (entry, arguments) -> {
+            assertThat(entry.exists()).isFalse();
+            entry.setValue("foo" + arguments[0]);
+            return "result";
+        }, "bar")).isEqualTo("result");
+        assertThat(cache.get("bla")).isEqualTo("foobar");
+
+        cache.invoke("bla", (entry, arguments) -> {
+            entry.remove();
+            return null;
+        });
+        assertThat(cache.containsKey("bla")).isFalse();
+    }
+
+    @Test
+    public void invokeConcurrently() throws Exception {
+        final int threads = 10;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                for (int j = 0; j < 100; j++) {
+                    cache.invoke("counter", (entry, arguments) -> {
+                        entry.setValue(String.valueOf(entry.exists() ? Integer.parseInt(entry.getValue()) + 1 : 1));
+                        return null;
+                    });
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertThat(cache.get("counter")).isEqualTo("1000");
+    }
+
+    @Test
+    public void invokeAll() throws Exception {
+        cache.put("bla", "foo");
+        Map<String, EntryProcessorResult<Integer>> results = cache.invokeAll(new HashSet<>(Arrays.asList("bla", "bloe", "fail")), (entry, arguments) -> {
+            if (entry.getKey().equals("fail")) {
+                throw new IllegalStateException();
+            }
+            return entry.exists() ? entry.getValue().length() : null;
+        });
+        assertThat(results).hasSize(2);
+        assertThat(results.get("bla").get()).isEqualTo(3);
+        try {
+            results.get("fail").get();
+            fail();
+        } catch (EntryProcessorException epe) {
+            assertThat(epe.getCause()).isInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    @Test
+    public void listeners() throws InterruptedException {
+        RecordingListener sync = new RecordingListener(5);
+        RecordingListener async = new RecordingListener(5);
+        cache.registerCacheEntryListener(new MutableCacheEntryListenerConfiguration<>(() -> sync, null, true, true));
+        cache.registerCacheEntryListener(new MutableCacheEntryListenerConfiguration<>(() -> async, null, false, false));
+
+        cache.put("a", "1");
+        cache.put("a", "2");
+        cache.putIfAbsent("b", "3");
+        cache.remove("a");
+        cache.getAndRemove("b");
+
+        assertThat(sync.events).containsExactly("CREATED a=1", "UPDATED a=2 (was 1)", "CREATED b=3", "REMOVED a=2", "REMOVED b=3");
+        assertThat(async.latch.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(async.events).containsExactly("CREATED a=1", "UPDATED a=2", "CREATED b=3", "REMOVED a=2", "REMOVED b=3");
+    }
+
+    @Test
+    public void registerCacheEntryListener() {
+        MutableCacheEntryListenerConfiguration<String, String> configuration = new MutableCacheEntryListenerConfiguration<>(() -> new RecordingListener(0), null, false, true);
+        cache.registerCacheEntryListener(configuration);
+        try {
+            cache.registerCacheEntryListener(configuration);
+            fail("Registering twice should fail");
+        } catch (IllegalArgumentException iae) {
+            // ok
+        }
+    }
+
+    @Test
+    public void deregisterCacheEntryListener() {
+        RecordingListener listener = new RecordingListener(0);
+        MutableCacheEntryListenerConfiguration<String, String> configuration = new MutableCacheEntryListenerConfiguration<>(() -> listener, null, false, true);
+        cache.registerCacheEntryListener(configuration);
+        cache.put("a", "1");
+        cache.deregisterCacheEntryListener(configuration);
+        cache.put("a", "2");
+        assertThat(listener.events).containsExactly("CREATED a=1");
+    }
+
+    static class RecordingListener implements CacheEntryCreatedListener<String, String>, CacheEntryUpdatedListener<String, String>, CacheEntryRemovedListener<String, String> {
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch;
+
+        RecordingListener(int expected) {
+            latch = new CountDownLatch(expected);
+        }
+
+        private void record(Iterable<CacheEntryEvent<? extends String, ? extends String>> cacheEntryEvents) {
+            for (CacheEntryEvent<? extends String, ? extends String> e : cacheEntryEvents) {
+                events.add(e.getEventType() + " " + e.getKey() + "=" + e.getValue() + (e.isOldValueAvailable() ? " (was " + e.getOldValue() + ")" : ""));
+                latch.countDown();
+            }
+        }
+
+        @Override
+        public void onCreated(Iterable<CacheEntryEvent<? extends String, ? extends String>> cacheEntryEvents) {
+            record(cacheEntryEvents);
+        }
+
+        @Override
+        public void onUpdated(Iterable<CacheEntryEvent<? extends String, ? extends String>> cacheEntryEvents) {
+            record(cacheEntryEvents);
+        }
+
+        @Override
+        public void onRemoved(Iterable<CacheEntryEvent<? extends String, ? extends String>> cacheEntryEvents) {
+            record(cacheEntryEvents);
+        }
+    }
+}
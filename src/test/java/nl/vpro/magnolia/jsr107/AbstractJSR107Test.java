@@ -29,7 +29,7 @@ public abstract class AbstractJSR107Test {
     @Before
     public void setupCacheManager() {
 
-        injector = Guice.createInjector(new CacheConfigurer(), new AbstractModule() {
+        injector = Guice.createInjector(cacheConfigurer(), new AbstractModule() {
             @Override
             protected void configure() {
                 f = new MockCacheFactory(true);
@@ -42,4 +42,8 @@ public abstract class AbstractJSR107Test {
 
         cacheManager = (MgnlCacheManager) injector.getInstance(CacheManager.class);
     }
+
+    protected CacheConfigurer cacheConfigurer() {
+        return new CacheConfigurer();
+    }
 }
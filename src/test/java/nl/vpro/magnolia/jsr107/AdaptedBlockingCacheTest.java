@@ -2,7 +2,6 @@ package nl.vpro.magnolia.jsr107;
 
 import java.util.*;
 
-import org.junit.Before;
 import org.junit.Test;
 
 import nl.vpro.magnolia.jsr107.mock.MockCacheFactory;
@@ -13,16 +12,13 @@ import static org.assertj.core.api.Assertions.assertThat;
  * @author Michiel Meeuwissen
  * @since 1.6
  */
-public class AdaptedBlockingCacheTest {
-
-	private AdaptedCache<String, String> cache;
-
-    @Before
-	public void init() {
-        cache = new AdaptedCache<>(new MockCacheFactory(true).getCache("test"), null, null);
+public class AdaptedBlockingCacheTest extends AbstractAdaptedCacheTest {
 
+    @Override
+    protected info.magnolia.module.cache.Cache createCache(String name) {
+        return new MockCacheFactory(true).getCache(name);
+    }
 
-	}
 	@Test
 	public void get() throws Exception {
 		assertThat(cache.get("bla")).isNull();
@@ -57,11 +53,6 @@ public class AdaptedBlockingCacheTest {
         assertThat(cache.containsKey("null")).isTrue();
 	}
 
-	@Test
-	public void loadAll() throws Exception {
-        // Not supported.
-	}
-
 	@Test
 	public void put() throws Exception {
         cache.put("bla", "foo");
@@ -190,18 +181,4 @@ public class AdaptedBlockingCacheTest {
         assertThat(cache).isEmpty();
 	}
 
-
-
-
-    @Test
-    public void registerCacheEntryListener() {
-        // UnsupportedOperationException(
-
-    }
-
-    @Test
-    public void deregisterCacheEntryListener() {
-        // unsupported
-    }
-
 }
@@ -1,8 +1,16 @@
 package nl.vpro.magnolia.jsr107;
 
+import java.io.Closeable;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javax.cache.Cache;
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheWriter;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -15,15 +23,17 @@ import static org.assertj.core.api.Assertions.assertThat;
  * @author Michiel Meeuwissen
  * @since 1.3
  */
-public class AdaptedCacheTest {
+public class AdaptedCacheTest extends AbstractAdaptedCacheTest {
 
-	private AdaptedCache<String, String> cache;
     private AdaptedCache<String, Optional<String>> cacheWithOptional;
 
+    @Override
+    protected info.magnolia.module.cache.Cache createCache(String name) {
+        return new MockCache(name);
+    }
 
     @Before
 	public void init() {
-        cache = new AdaptedCache<>(new MockCache("test"), null, null);
         cacheWithOptional = new AdaptedCache<>(new MockCache("test"), null, null);
 	}
 	@Test
@@ -59,11 +69,6 @@ public class AdaptedCacheTest {
         assertThat(cache.containsKey("null")).isTrue();
 	}
 
-	@Test
-	public void loadAll() throws Exception {
-        // Not supported.
-	}
-
 	@Test
 	public void put() throws Exception {
         cache.put("bla", "foo");
@@ -217,20 +222,279 @@ public class AdaptedCacheTest {
 	}
 
 
-	@Test
-    public void unwrap() {
-	    assertThat(cache.unwrap(info.magnolia.module.cache.Cache.class)).isInstanceOf(MockCache.class);
+    @Test
+    public void writeThrough() {
+        RecordingWriter writer = new RecordingWriter();
+        cache.setCacheWriter(writer);
+        cache.put("a", "1");
+        cache.putAll(Collections.singletonMap("b", "2"));
+        cache.remove("a");
+        assertThat(writer.written).containsOnly(new AbstractMap.SimpleEntry<>("a", "1"), new AbstractMap.SimpleEntry<>("b", "2"));
+        assertThat(writer.deleted).containsExactly("a");
+        assertThat(cache.get("b")).isEqualTo("2");
+    }
+
+    @Test
+    public void writeThroughConditional() {
+        RecordingWriter writer = new RecordingWriter();
+        cache.setCacheWriter(writer);
+        assertThat(cache.putIfAbsent("a", "1")).isTrue();
+        assertThat(cache.putIfAbsent("a", "2")).isFalse();
+        assertThat(cache.replace("a", "x", "3")).isFalse();
+        assertThat(cache.replace("a", "1", "3")).isTrue();
+        cache.invoke("b", (entry, arguments) -> {
+            entry.setValue("4");
+            return null;
+        });
+        assertThat(cache.remove("b", "4")).isTrue();
+        assertThat(writer.written).containsOnly(new AbstractMap.SimpleEntry<>("a", "3"), new AbstractMap.SimpleEntry<>("b", "4"));
+        assertThat(writer.deleted).containsExactly("b");
+    }
+
+    @Test
+    public void markersNotWrittenThrough() {
+        AdaptedCache<String, Object> objects = new AdaptedCache<>(new MockCache("objects"), null, null);
+        List<Object> written = new ArrayList<>();
+        objects.setCacheWriter(new CacheWriter<String, Object>() {
+            @Override
+            public void write(Cache.Entry<? extends String, ? extends Object> entry) {
+                written.add(entry.getValue());
+            }
+            @Override
+            public void writeAll(Collection<Cache.Entry<? extends String, ? extends Object>> entries) {
+                entries.forEach(this::write);
+            }
+            @Override
+            public void delete(Object key) {
+            }
+            @Override
+            public void deleteAll(Collection<?> keys) {
+            }
+        });
+        objects.put("a", AdaptedCache.NULL);
+        objects.put("b", AdaptedCache.EXCEPTION);
+        objects.put("c", "value");
+        assertThat(written).containsExactly("value");
+    }
+
+    @Test
+    public void writeBehind() {
+        RecordingWriter writer = new RecordingWriter();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            WriteBehindCacheWriter<String, String> writeBehind = new WriteBehindCacheWriter<>("test", writer, Duration.ofHours(1), 3, scheduler, Runnable::run);
+            cache.setCacheWriter(writeBehind);
+            cache.put("a", "1");
+            cache.put("a", "2");
+            cache.put("b", "1");
+            cache.remove("b");
+            assertThat(writeBehind.getPending()).isEqualTo(2);
+            assertThat(writer.written).isEmpty();
+            assertThat(cache.get("a")).isEqualTo("2");
+
+            // a full batch is flushed right away
+            cache.put("c", "3");
+            assertThat(writer.written).containsOnly(new AbstractMap.SimpleEntry<>("a", "2"), new AbstractMap.SimpleEntry<>("c", "3"));
+            assertThat(writer.deleted).containsExactly("b");
+
+            cache.put("d", "4");
+            assertThat(writer.written).doesNotContainKey("d");
+            cache.close();
+            assertThat(writer.written).containsEntry("d", "4");
+            assertThat(writeBehind.getPending()).isEqualTo(0);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void writeBehindOldestFirst() {
+        final List<String> order = new ArrayList<>();
+        RecordingWriter writer = new RecordingWriter() {
+            @Override
+            public void write(Cache.Entry<? extends String, ? extends String> entry) {
+                order.add(entry.getKey());
+            }
+        };
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            // flushes only when asked to
+            WriteBehindCacheWriter<String, String> writeBehind = new WriteBehindCacheWriter<>("test", writer, Duration.ofHours(1), 2, scheduler, r -> {});
+            for (int i = 0; i < 20; i++) {
+                writeBehind.write(new SimpleCacheEntry<>("key" + i, "value"));
+            }
+            // queued again, but still the oldest
+            writeBehind.write(new SimpleCacheEntry<>("key0", "again"));
+            writeBehind.flush();
+            assertThat(order).hasSize(20);
+            for (int i = 0; i < 20; i++) {
+                assertThat(order.get(i)).isEqualTo("key" + i);
+            }
+        } finally {
+            scheduler.shutdown();
+        }
     }
 
     @Test
-    public void registerCacheEntryListener() {
-        // UnsupportedOperationException(
+    public void closeOnlyOwnLoader() {
+        ClosingLoader shared = new ClosingLoader();
+        cache.setCacheLoader(shared);
+        cache.close();
+        assertThat(shared.closed).isFalse();
+
+        ClosingLoader own = new ClosingLoader();
+        cache.setCacheLoader(own, true);
+        cache.close();
+        assertThat(own.closed).isTrue();
+    }
+
+    static class ClosingLoader implements CacheLoader<String, String>, Closeable {
+        boolean closed;
+
+        @Override
+        public String load(String key) {
+            return key;
+        }
+
+        @Override
+        public Map<String, String> loadAll(Iterable<? extends String> keys) {
+            return Collections.emptyMap();
+        }
 
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    static class RecordingWriter implements CacheWriter<String, String> {
+        final Map<String, String> written = new HashMap<>();
+        final List<Object> deleted = new ArrayList<>();
+
+        @Override
+        public void write(Cache.Entry<? extends String, ? extends String> entry) {
+            written.put(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void writeAll(Collection<Cache.Entry<? extends String, ? extends String>> entries) {
+            entries.forEach(this::write);
+            entries.clear();
+        }
+
+        @Override
+        public void delete(Object key) {
+            deleted.add(key);
+        }
+
+        @Override
+        public void deleteAll(Collection<?> keys) {
+            deleted.addAll(keys);
+            keys.clear();
+        }
+    }
+
+    @Test
+    public void blockingTimeout() throws Exception {
+        cache.setBlockingTimeout(Duration.ofSeconds(10));
+        assertThat(cache.get("a")).isNull();
+        final CompletableFuture<String> waiting = CompletableFuture.supplyAsync(() -> cache.get("a"));
+        Thread.sleep(100);
+        assertThat(waiting.isDone()).isFalse();
+        cache.put("a", "calculated");
+        assertThat(waiting.get(1, TimeUnit.SECONDS)).isEqualTo("calculated");
+    }
+
+    @Test
+    public void blockingTimeoutExpires() throws Exception {
+        cache.setBlockingTimeout(Duration.ofMillis(100));
+        assertThat(cache.get("a")).isNull();
+        // nothing is put, the second thread gives up and gets nothing
+        long start = System.nanoTime();
+        assertThat(CompletableFuture.supplyAsync(() -> cache.get("a")).get(1, TimeUnit.SECONDS)).isNull();
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(100));
+    }
+
+    @Test
+    public void blockingTimeoutZero() throws Exception {
+        cache.setBlockingTimeout(Duration.ZERO);
+        assertThat(cache.get("a")).isNull();
+        assertThat(CompletableFuture.supplyAsync(() -> cache.get("a")).get(100, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    public void nearCache() {
+        cache.setNearCache(10, Duration.ofMinutes(1));
+        cache.put("a", "x");
+        assertThat(cache.get("a")).isEqualTo("x");
+        assertThat(cache.getNearCache().size()).isEqualTo(1);
+
+        // changed behind our back, the near cache still has the old value
+        cache.unwrap(MockCache.class).put("a", CacheValue.of("y"));
+        assertThat(cache.get("a")).isEqualTo("x");
+
+        cache.put("a", "z");
+        assertThat(cache.get("a")).isEqualTo("z");
+        cache.remove("a");
+        assertThat(cache.get("a")).isNull();
+
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, "value" + i);
+            assertThat(cache.get("key" + i)).isEqualTo("value" + i);
+        }
+        assertThat(cache.getNearCache().size()).isLessThanOrEqualTo(10);
+        cache.clear();
+        assertThat(cache.getNearCache().size()).isEqualTo(0);
+        assertThat(cache.get("key99")).isNull();
+    }
+
+    @Test
+    public void nearCacheKeepsWhatIsNotInvalidated() {
+        NearCache<String> near = new NearCache<>(10, Duration.ofMinutes(1));
+        long stamp = near.stamp("a");
+        // some other key, in another stripe
+        near.invalidate("b");
+        near.put("a", "x", Long.MAX_VALUE, stamp);
+        assertThat(near.get("a")).isEqualTo("x");
+
+        stamp = near.stamp("a");
+        near.invalidate("a");
+        near.put("a", "y", Long.MAX_VALUE, stamp);
+        assertThat(near.get("a")).isNull();
+
+        // expired already
+        near.put("c", "z", System.currentTimeMillis() - 1, near.stamp("c"));
+        assertThat(near.get("c")).isNull();
+        assertThat(near.size()).isEqualTo(0);
+    }
+
+	@Test
+    public void unwrap() {
+	    assertThat(cache.unwrap(info.magnolia.module.cache.Cache.class)).isInstanceOf(MockCache.class);
     }
 
     @Test
-    public void deregisterCacheEntryListener() {
-        // unsupported
+    public void statistics() {
+        AdaptedCacheStatistics statistics = new AdaptedCacheStatistics();
+        cache.setStatistics(statistics);
+        cache.get("a");
+        cache.put("a", "1");
+        cache.get("a");
+        cache.putIfAbsent("a", "2");
+        cache.getAll(new HashSet<>(Arrays.asList("a", "b")));
+        cache.remove("a");
+        cache.remove("a");
+
+        assertThat(statistics.getCacheHits()).isEqualTo(2);
+        assertThat(statistics.getCacheMisses()).isEqualTo(2);
+        assertThat(statistics.getCacheGets()).isEqualTo(4);
+        assertThat(statistics.getCacheHitPercentage()).isEqualTo(50f);
+        assertThat(statistics.getCachePuts()).isEqualTo(1);
+        assertThat(statistics.getCacheRemovals()).isEqualTo(1);
+
+        statistics.clear();
+        assertThat(statistics.getCacheGets()).isEqualTo(0);
+        assertThat(statistics.getAverageGetTime()).isEqualTo(0f);
     }
 
 }
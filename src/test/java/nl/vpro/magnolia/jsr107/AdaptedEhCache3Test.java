@@ -0,0 +1,165 @@
+package nl.vpro.magnolia.jsr107;
+
+import info.magnolia.module.cache.ehcache3.EhCache3Wrapper;
+
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.cache.Cache;
+import javax.cache.integration.CacheWriterException;
+
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the paths of {@link AdaptedCache} which write an ehcache3 store directly.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+public class AdaptedEhCache3Test {
+
+    private CacheManager cacheManager;
+    private AdaptedCache<String, String> cache;
+
+    @Before
+    public void init() {
+        cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+            .withCache("test", CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class, ResourcePoolsBuilder.heap(100)))
+            .build(true);
+        EhCache3Wrapper wrapper = mock(EhCache3Wrapper.class);
+        when(wrapper.getName()).thenReturn("test");
+        when(wrapper.getWrappedEhcache()).thenReturn(cacheManager.getCache("test", Object.class, Object.class));
+        cache = new AdaptedCache<>(wrapper, null, null);
+    }
+
+    @After
+    public void close() {
+        cacheManager.close();
+    }
+
+    @Test
+    public void getAndPutWakesWaitingReader() throws Exception {
+        assertWakesWaitingReader(c -> c.getAndPut("a", "calculated"));
+    }
+
+    @Test
+    public void putIfAbsentWakesWaitingReader() throws Exception {
+        assertWakesWaitingReader(c -> c.putIfAbsent("a", "calculated"));
+    }
+
+    @Test
+    public void invokeWakesWaitingReader() throws Exception {
+        assertWakesWaitingReader(c -> c.invoke("a", (entry, args) -> {
+            entry.setValue("calculated");
+            return null;
+        }));
+    }
+
+    @Test
+    public void removeWakesWaitingReader() throws Exception {
+        cache.setBlockingTimeout(Duration.ofSeconds(10));
+        assertThat(cache.get("a")).isNull();
+        final CompletableFuture<String> waiting = CompletableFuture.supplyAsync(() -> cache.get("a"));
+        Thread.sleep(100);
+        assertThat(waiting.isDone()).isFalse();
+        cache.remove("a", "something else");
+        // released, and nothing was calculated
+        assertThat(waiting.get(1, TimeUnit.SECONDS)).isNull();
+    }
+
+    @Test
+    public void writeThroughConditional() {
+        AdaptedCacheTest.RecordingWriter writer = new AdaptedCacheTest.RecordingWriter();
+        cache.setCacheWriter(writer);
+        assertThat(cache.putIfAbsent("a", "1")).isTrue();
+        assertThat(cache.putIfAbsent("a", "2")).isFalse();
+        assertThat(cache.replace("a", "1", "3")).isTrue();
+        assertThat(cache.getAndReplace("a", "4")).isEqualTo("3");
+        assertThat(cache.remove("a", "4")).isTrue();
+        assertThat(writer.written).containsOnly(new AbstractMap.SimpleEntry<>("a", "4"));
+        assertThat(writer.deleted).containsExactly("a");
+    }
+
+    @Test
+    public void writeThroughFailureUndoesConditional() {
+        cache.setCacheWriter(new AdaptedCacheTest.RecordingWriter() {
+            @Override
+            public void write(Cache.Entry<? extends String, ? extends String> entry) {
+                throw new IllegalStateException();
+            }
+        });
+        assertThatThrownBy(() -> cache.putIfAbsent("a", "1")).isInstanceOf(CacheWriterException.class);
+        assertThat(cache.getCacheValue("a")).isNull();
+    }
+
+    @Test
+    public void removeResetsBackoff() {
+        assertResetsBackoff(c -> c.remove("a"));
+        assertResetsBackoff(c -> c.remove("a", "x"));
+        assertResetsBackoff(c -> c.getAndRemove("a"));
+        assertResetsBackoff(c -> c.removeAll(Collections.singleton("a")));
+        assertResetsBackoff(c -> c.invoke("a", (entry, args) -> {
+            entry.remove();
+            return null;
+        }));
+    }
+
+    @Test
+    public void putResetsBackoff() {
+        assertPutResetsBackoff(false, c -> c.putIfAbsent("a", "y"));
+        assertPutResetsBackoff(false, c -> c.getAndPut("a", "y"));
+        assertPutResetsBackoff(false, c -> c.putAll(Collections.singletonMap("a", "y")));
+        assertPutResetsBackoff(true, c -> c.replace("a", "y"));
+        assertPutResetsBackoff(true, c -> c.replace("a", "x", "y"));
+        assertPutResetsBackoff(true, c -> c.getAndReplace("a", "y"));
+    }
+
+    private void assertPutResetsBackoff(boolean present, Consumer<AdaptedCache<String, String>> put) {
+        // the clock doesn't move, so only the put can end the backoff
+        cache.getFailures().setClock(() -> 1000);
+        cache.removeAll(Collections.singleton("a"));
+        if (present) {
+            cache.putIfAbsent("a", "x");
+        }
+        cache.getFailures().failed("a", new IllegalStateException(), 1000, 2, 60000);
+        put.accept(cache);
+        assertThat(cache.getCacheValue("a").orNull()).isEqualTo("y");
+        assertThat(cache.getFailures().get("a")).isNull();
+    }
+
+    private void assertResetsBackoff(Consumer<AdaptedCache<String, String>> remove) {
+        // the clock doesn't move, so only the removal can end the backoff
+        cache.getFailures().setClock(() -> 1000);
+        cache.putIfAbsent("a", "x");
+        cache.getFailures().failed("a", new IllegalStateException(), 1000, 2, 60000);
+        assertThat(cache.getFailures().get("a")).isNotNull();
+        remove.accept(cache);
+        assertThat(cache.getCacheValue("a")).isNull();
+        assertThat(cache.getFailures().get("a")).isNull();
+    }
+
+    private void assertWakesWaitingReader(Consumer<AdaptedCache<String, String>> write) throws Exception {
+        cache.setBlockingTimeout(Duration.ofSeconds(10));
+        assertThat(cache.get("a")).isNull();
+        final CompletableFuture<String> waiting = CompletableFuture.supplyAsync(() -> cache.get("a"));
+        Thread.sleep(100);
+        assertThat(waiting.isDone()).isFalse();
+        write.accept(cache);
+        // well within the blocking timeout
+        assertThat(waiting.get(1, TimeUnit.SECONDS)).isEqualTo("calculated");
+    }
+}
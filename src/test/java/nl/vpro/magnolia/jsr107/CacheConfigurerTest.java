@@ -5,8 +5,13 @@ import info.magnolia.module.cache.CacheFactory;
 import javax.cache.annotation.CacheKey;
 import javax.cache.annotation.CachePut;
 import javax.cache.annotation.CacheResult;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.jsr107.ri.annotations.DefaultGeneratedCacheKey;
 import org.junit.Before;
@@ -82,6 +87,51 @@ public class CacheConfigurerTest extends AbstractJSR107Test {
             return count++ % 2 == 0 ? null : "string";
 
         }
+
+        @CacheResult(cacheName = "refresh")
+        @DefaultCacheSettings(refreshAfterSeconds = 1)
+        public Integer getRefreshedCount(String key) {
+            return count++;
+        }
+
+        int nestedCount = 0;
+
+        @CacheResult(cacheName = "refreshNested")
+        @DefaultCacheSettings(refreshAfterSeconds = 1)
+        public Integer getRefreshedNestedCount(String key) {
+            final Integer nested = getNestedCount(key);
+            count++;
+            return nested;
+        }
+
+        @CacheResult(cacheName = "nested")
+        public Integer getNestedCount(String key) {
+            return nestedCount++;
+        }
+
+        @CacheResult(cacheName = "async")
+        public CompletableFuture<Integer> getAsyncCount(String key) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    Thread.sleep(100L);
+                } catch (InterruptedException e) {
+                }
+                return count++;
+            });
+        }
+
+        @CacheResult(cacheName = "asyncNever")
+        public CompletableFuture<Integer> getAsyncNever(String key) {
+            count++;
+            return new CompletableFuture<>();
+        }
+
+        @CacheResult(cacheName = "asyncException", exceptionCacheName = "asyncException.exception")
+        public CompletableFuture<Integer> getAsyncException(String key) {
+            return CompletableFuture.supplyAsync(() -> {
+                throw new IllegalStateException("bla" + count++);
+            });
+        }
     }
     TestClass instance;
    
@@ -256,4 +306,94 @@ public class CacheConfigurerTest extends AbstractJSR107Test {
         }
     }
 
+    @Test
+    public void testRefreshAhead() throws InterruptedException {
+        assertEquals(Integer.valueOf(0), instance.getRefreshedCount("a"));
+        assertEquals(Integer.valueOf(0), instance.getRefreshedCount("a"));
+        Thread.sleep(1100);
+        // too old, but still returned, while refreshing in the background
+        assertEquals(Integer.valueOf(0), instance.getRefreshedCount("a"));
+        long start = System.currentTimeMillis();
+        while (instance.getRefreshedCount("a") == 0 && System.currentTimeMillis() - start < 5000) {
+            Thread.sleep(10);
+        }
+        assertEquals(Integer.valueOf(1), instance.getRefreshedCount("a"));
+        assertEquals(2, instance.count);
+    }
+
+    @Test
+    public void testRefreshAheadNested() throws InterruptedException {
+        assertEquals(Integer.valueOf(0), instance.getRefreshedNestedCount("a"));
+        Thread.sleep(1100);
+        assertEquals(Integer.valueOf(0), instance.getRefreshedNestedCount("a"));
+        long start = System.currentTimeMillis();
+        while (instance.count < 2 && System.currentTimeMillis() - start < 5000) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, instance.count);
+        // the refresh itself did not use its cache, but the method it called did
+        assertEquals(1, instance.nestedCount);
+        assertEquals(Integer.valueOf(0), instance.getNestedCount("a"));
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        CompletableFuture<Integer> first = instance.getAsyncCount("a");
+        CompletableFuture<Integer> second = instance.getAsyncCount("a");
+        // nothing blocked
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(Integer.valueOf(0), first.get(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(0), second.get(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Integer> third = instance.getAsyncCount("a");
+        assertTrue(third.isDone());
+        assertEquals(Integer.valueOf(0), third.get());
+        assertEquals(1, instance.count);
+
+        assertEquals(Integer.valueOf(1), instance.getAsyncCount("b").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAsyncNeverCompletes() throws Exception {
+        final Duration maxWait = cacheManager.getSingleFlightMaxWait();
+        cacheManager.setSingleFlightMaxWait(Duration.ofMillis(100));
+        try {
+            CompletableFuture<Integer> first = instance.getAsyncNever("a");
+            CompletableFuture<Integer> joined = instance.getAsyncNever("a");
+            assertEquals(1, instance.count);
+            try {
+                joined.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException ee) {
+                assertTrue(ee.getCause() instanceof TimeoutException);
+            }
+            assertTrue(first.isCompletedExceptionally());
+            // not waiting for the forgotten call any more
+            instance.getAsyncNever("a");
+            assertEquals(2, instance.count);
+        } finally {
+            cacheManager.setSingleFlightMaxWait(maxWait);
+        }
+    }
+
+    @Test
+    public void testAsyncException() throws Exception {
+        try {
+            instance.getAsyncException("a").get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException ee) {
+            assertEquals("bla0", ee.getCause().getMessage());
+        }
+        CompletableFuture<Integer> again = instance.getAsyncException("a");
+        assertTrue(again.isCompletedExceptionally());
+        try {
+            again.get();
+            fail();
+        } catch (ExecutionException ee) {
+            assertEquals("bla0", ee.getCause().getMessage());
+        }
+        assertEquals(1, instance.count);
+    }
+
 }
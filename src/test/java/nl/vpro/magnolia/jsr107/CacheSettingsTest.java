@@ -2,6 +2,7 @@ package nl.vpro.magnolia.jsr107;
 
 import java.time.Duration;
 
+import org.ehcache.config.units.MemoryUnit;
 import org.junit.Test;
 
 import static org.assertj.core.api.Java6Assertions.assertThat;
@@ -69,4 +70,31 @@ public class CacheSettingsTest {
 
     }
 
+    @Test
+    public void sizeInMemory() {
+        CacheSettings defaults = CacheSettings.builder().build();
+        assertThat(defaults.getMaxSizeInMemory()).isEqualTo(0);
+        assertThat(defaults.getSizeInMemoryUnit()).isEqualTo(MemoryUnit.MB);
+
+        CacheSettings settings = CacheSettings.builder()
+            .maxSizeInMemory(512, MemoryUnit.KB)
+            .build();
+        assertThat(settings.getMaxSizeInMemory()).isEqualTo(512);
+        assertThat(settings.getSizeInMemoryUnit()).isEqualTo(MemoryUnit.KB);
+    }
+
+    @Test
+    public void offHeap() {
+        assertThat(CacheSettings.builder()
+            .build()
+            .getMaxOffHeapMB())
+            .isEqualTo(0);
+
+        assertThat(CacheSettings.builder()
+            .maxOffHeapMB(2048)
+            .build()
+            .getMaxOffHeapMB())
+            .isEqualTo(2048);
+    }
+
 }
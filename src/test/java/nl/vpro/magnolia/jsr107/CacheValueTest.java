@@ -7,6 +7,7 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Michiel Meeuwissen
@@ -33,6 +34,23 @@ public class CacheValueTest {
     }
 
 
+    @Test
+    public void serializeCreated() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        CacheValue<Optional<String>> value = new CacheValue<>(Optional.of("hoi"));
+        out.writeObject(value);
+        out.close();
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        CacheValue<Optional<String>> deserialized = (CacheValue<Optional<String>>) in.readObject();
+        in.close();
+
+        assertEquals(value.getCreated(), deserialized.getCreated());
+        assertEquals(Optional.of("hoi"), deserialized.orNull());
+    }
+
+
     @Test
     public void serializeNull() throws IOException, ClassNotFoundException {
         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
@@ -87,4 +105,40 @@ public class CacheValueTest {
         assertNull(deserialized.orNull().orElse(null));
 
     }
+
+    @Test
+    public void serializeCompressed() throws IOException, ClassNotFoundException {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            html.append("<li class=\"item\">").append(i).append("</li>\n");
+        }
+        CacheValue<Optional<String>> value = new CacheValue<>(Optional.of(html.toString()));
+        int uncompressed = serialize(value).length;
+        value.setCompressionThreshold(1000);
+        byte[] bytes = serialize(value);
+        assertTrue(bytes.length < uncompressed / 4);
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        CacheValue<Optional<String>> deserialized = (CacheValue<Optional<String>>) in.readObject();
+        in.close();
+
+        assertEquals(html.toString(), deserialized.orNull().get());
+        assertEquals(value.getCreated(), deserialized.getCreated());
+
+        CacheValue<String> small = new CacheValue<>("hoi");
+        small.setCompressionThreshold(1000);
+        in = new ObjectInputStream(new ByteArrayInputStream(serialize(small)));
+        CacheValue<String> notCompressed = (CacheValue<String>) in.readObject();
+        in.close();
+        assertEquals("hoi", notCompressed.orNull());
+        assertEquals(small.getCreated(), notCompressed.getCreated());
+    }
+
+    private byte[] serialize(CacheValue<?> value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
 }
@@ -0,0 +1,14 @@
+package nl.vpro.magnolia.jsr107;
+
+/**
+ * Runs the tests of {@link CacheConfigurerTest} with the chain of interceptors which the {@link FusedCacheResultInterceptor} replaces.
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+public class ChainedCacheConfigurerTest extends CacheConfigurerTest {
+
+    @Override
+    protected CacheConfigurer cacheConfigurer() {
+        return new CacheConfigurer(false);
+    }
+}
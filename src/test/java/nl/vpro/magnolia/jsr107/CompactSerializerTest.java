@@ -0,0 +1,101 @@
+package nl.vpro.magnolia.jsr107;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+public class CompactSerializerTest {
+
+    private final CompactSerializer serializer = new CompactSerializer(getClass().getClassLoader());
+
+    @Test
+    public void cacheValues() throws Exception {
+        for (Object value : new Object[] {
+            "hoi", "", "€ unicode", null, 1, -1L, true, false, 0.5,
+            Optional.of("bla"), Optional.empty(), Optional.of(Optional.of(1)),
+            AdaptedCache.NULL, AdaptedCache.EXCEPTION, LocalDate.of(2017, 10, 17)
+        }) {
+            CacheValue<Object> cacheValue = new CacheValue<>(value, 123L);
+            CacheValue<?> read = (CacheValue<?>) roundTrip(cacheValue);
+            assertThat(read.orNull()).isEqualTo(value);
+            assertThat(read.getCreated()).isEqualTo(123L);
+            assertThat(serializer.equals(cacheValue, serializer.serialize(cacheValue))).isTrue();
+        }
+    }
+
+    @Test
+    public void exception() throws Exception {
+        CacheValue<?> read = (CacheValue<?>) roundTrip(CacheValue.of(new IllegalStateException("bla")));
+        assertThat(read.orNull()).isInstanceOf(IllegalStateException.class);
+        assertThat(((Throwable) read.orNull()).getMessage()).isEqualTo("bla");
+    }
+
+    @Test
+    public void keys() throws Exception {
+        SerializableGeneratedCacheKey key = new SerializableGeneratedCacheKey("a", 1, null, LocalDate.of(2017, 10, 17));
+        assertThat(roundTrip(key)).isEqualTo(key);
+        assertThat(roundTrip(new SerializableGeneratedCacheKey())).isEqualTo(new SerializableGeneratedCacheKey());
+    }
+
+    @Test
+    public void other() throws Exception {
+        assertThat(roundTrip("just a string")).isEqualTo("just a string");
+        assertThat(roundTrip(LocalDate.of(2017, 10, 17))).isEqualTo(LocalDate.of(2017, 10, 17));
+    }
+
+    @Test
+    public void compact() throws Exception {
+        CacheValue<String> value = CacheValue.of("hoi");
+        assertThat(serializer.serialize(value).remaining()).isLessThan(javaSerialized(value) / 4);
+
+        SerializableGeneratedCacheKey key = new SerializableGeneratedCacheKey("a", 1L);
+        assertThat(serializer.serialize(key).remaining()).isLessThan(javaSerialized(key) / 4);
+    }
+
+    @Test
+    public void compressed() throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            json.append("{\"id\": ").append(i).append(", \"title\": \"bla\"},");
+        }
+        json.append("]");
+        CacheValue<String> value = new CacheValue<>(json.toString(), 123L);
+        int uncompressed = serializer.serialize(value).remaining();
+        value.setCompressionThreshold(1000);
+        ByteBuffer bytes = serializer.serialize(value);
+        assertThat(bytes.remaining()).isLessThan(uncompressed / 4);
+
+        CacheValue<?> read = (CacheValue<?>) serializer.read(bytes);
+        assertThat(read.orNull()).isEqualTo(json.toString());
+        assertThat(read.getCreated()).isEqualTo(123L);
+
+        CacheValue<String> small = CacheValue.of("hoi");
+        small.setCompressionThreshold(1000);
+        assertThat(serializer.serialize(small).remaining()).isEqualTo(serializer.serialize(CacheValue.of("hoi")).remaining());
+    }
+
+    private Object roundTrip(Object object) throws Exception {
+        ByteBuffer buffer = serializer.serialize(object);
+        return serializer.read(buffer);
+    }
+
+    private int javaSerialized(Serializable object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.size();
+    }
+}
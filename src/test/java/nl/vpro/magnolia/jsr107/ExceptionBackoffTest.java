@@ -0,0 +1,121 @@
+package nl.vpro.magnolia.jsr107;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import javax.cache.annotation.CacheResult;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+public class ExceptionBackoffTest extends AbstractJSR107Test {
+
+    public static class TestClass {
+        int calls = 0;
+        boolean failing = true;
+
+        @CacheResult(cacheName = "backoff", exceptionCacheName = "backoff-exceptions")
+        @ExceptionBackoff(value = UncheckedIOException.class, initialMillis = 200, maxMillis = 1000)
+        public String get(String key) {
+            calls++;
+            if (failing) {
+                throw new UncheckedIOException(new IOException(key + calls));
+            }
+            if (key.equals("illegal")) {
+                throw new IllegalArgumentException(key + calls);
+            }
+            return key + calls;
+        }
+    }
+
+    TestClass instance;
+
+    @Before
+    public void setup() {
+        instance = injector.getInstance(TestClass.class);
+    }
+
+    @Test
+    public void backoff() throws InterruptedException {
+        assertThat(thrown("a")).isEqualTo("a1");
+        assertThat(thrown("a")).isEqualTo("a1");
+        assertThat(instance.calls).isEqualTo(1);
+        assertThat(cacheManager.getCache("backoff-exceptions").iterator().hasNext()).isFalse();
+
+        Thread.sleep(250);
+        assertThat(thrown("a")).isEqualTo("a2");
+        // now backing off for 400 ms
+        Thread.sleep(150);
+        assertThat(thrown("a")).isEqualTo("a2");
+        assertThat(instance.calls).isEqualTo(2);
+
+        instance.failing = false;
+        Thread.sleep(350);
+        assertThat(instance.get("a")).isEqualTo("a3");
+        assertThat(instance.get("a")).isEqualTo("a3");
+        assertThat(FusedCacheResultInterceptor.failures(cacheManager.getCache("backoff")).size()).isEqualTo(0);
+    }
+
+    @Test
+    public void otherExceptions() {
+        instance.failing = false;
+        try {
+            instance.get("illegal");
+            fail();
+        } catch (IllegalArgumentException iae) {
+            assertThat(iae.getMessage()).isEqualTo("illegal1");
+        }
+        // not backed off, but in the exception cache
+        assertThat(cacheManager.getCache("backoff-exceptions").iterator().hasNext()).isTrue();
+        assertThat(FusedCacheResultInterceptor.failures(cacheManager.getCache("backoff")).size()).isEqualTo(0);
+    }
+
+    @Test
+    public void clear() {
+        assertThat(thrown("a")).isEqualTo("a1");
+        cacheManager.getCache("backoff").clear();
+        assertThat(thrown("a")).isEqualTo("a2");
+    }
+
+    @Test
+    public void remove() {
+        // the clock doesn't move, so only the removal can end the backoff
+        FusedCacheResultInterceptor.failures(cacheManager.getCache("backoff")).setClock(() -> 1000);
+        assertThat(thrown("a")).isEqualTo("a1");
+        assertThat(thrown("a")).isEqualTo("a1");
+        instance.failing = false;
+        assertThat(thrown("a")).isEqualTo("a1");
+
+        Object key = cacheManager.getCache("backoff").iterator().next().getKey();
+        assertThat(cacheManager.getCache("backoff").remove(key)).isTrue();
+        assertThat(instance.get("a")).isEqualTo("a2");
+        assertThat(instance.calls).isEqualTo(2);
+    }
+
+    @Test
+    public void delay() throws NoSuchMethodException {
+        ExceptionBackoff backoff = TestClass.class.getMethod("get", String.class).getAnnotation(ExceptionBackoff.class);
+        assertThat(FailedKeys.delay(backoff, 1)).isEqualTo(200);
+        assertThat(FailedKeys.delay(backoff, 2)).isEqualTo(400);
+        assertThat(FailedKeys.delay(backoff, 3)).isEqualTo(800);
+        assertThat(FailedKeys.delay(backoff, 4)).isEqualTo(1000);
+        assertThat(FailedKeys.delay(backoff, 100)).isEqualTo(1000);
+    }
+
+    private String thrown(String key) {
+        try {
+            instance.get(key);
+            fail();
+            return null;
+        } catch (UncheckedIOException uioe) {
+            return uioe.getCause().getMessage();
+        }
+    }
+}
@@ -1,13 +1,23 @@
 package nl.vpro.magnolia.jsr107;
 
+import javax.cache.Cache;
 import javax.cache.annotation.CacheResult;
+import javax.cache.configuration.MutableCacheEntryListenerConfiguration;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.event.CacheEntryCreatedListener;
+import javax.cache.integration.CacheLoader;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.time.Duration;
-import java.util.Iterator;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
 
-import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.assertj.core.api.Assertions.assertThat;
 
 /**
  * @author Michiel Meeuwissen
@@ -62,4 +72,142 @@ public class MgnlCacheManagerTest extends AbstractJSR107Test {
 
     }
 
+    @Test
+    public void getCacheIsMemoized() {
+        assertThat(cacheManager.getCache("counts")).isSameAs(cacheManager.getCache("counts"));
+        assertThat(cacheManager.getUnblockingCache("counts")).isSameAs(cacheManager.getUnblockingCache("counts"));
+        assertThat(cacheManager.getCache("counts")).isNotSameAs(cacheManager.getCache("counts2"));
+    }
+
+    @Test
+    public void getCacheAfterRestart() {
+        Object before = cacheManager.getCache("counts");
+        cacheManager.onCacheModuleStart();
+        assertThat(cacheManager.getCache("counts")).isNotSameAs(before);
+    }
+
+    @Test
+    public void listenersAfterRestart() {
+        final AtomicInteger created = new AtomicInteger();
+        final CacheEntryCreatedListener<String, String> listener = events -> events.forEach(e -> created.incrementAndGet());
+        final Cache<String, String> before = cacheManager.getCache("counts");
+        final MutableCacheEntryListenerConfiguration<String, String> configuration = new MutableCacheEntryListenerConfiguration<>(() -> listener, null, false, true);
+        before.registerCacheEntryListener(configuration);
+        cacheManager.onCacheModuleStart();
+        final Cache<String, String> after = cacheManager.getCache("counts");
+        assertThat(after).isNotSameAs(before);
+        after.put("listened", "x");
+        assertThat(created.get()).isEqualTo(1);
+        after.deregisterCacheEntryListener(configuration);
+    }
+
+    @Test
+    public void createCacheReadThrough() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+            @Override
+            public String load(String key) {
+                loads.incrementAndGet();
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "loaded " + key;
+            }
+
+            @Override
+            public Map<String, String> loadAll(Iterable<? extends String> keys) {
+                Map<String, String> result = new HashMap<>();
+                for (String key : keys) {
+                    result.put(key, load(key));
+                }
+                return result;
+            }
+        };
+        Cache<String, String> cache = cacheManager.createCache("readthrough", new MutableConfiguration<String, String>()
+            .setReadThrough(true)
+            .setCacheLoaderFactory(() -> loader));
+
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            results.add(executor.submit(() -> cache.get("a")));
+        }
+        for (Future<String> result : results) {
+            assertThat(result.get()).isEqualTo("loaded a");
+        }
+        executor.shutdown();
+        assertThat(loads.get()).isEqualTo(1);
+
+        assertThat(cache.getAll(new HashSet<>(Arrays.asList("a", "b")))).containsEntry("a", "loaded a").containsEntry("b", "loaded b");
+        assertThat(loads.get()).isEqualTo(2);
+        assertThat(cache.containsKey("b")).isTrue();
+    }
+
+    @Test
+    public void computeIfAbsent() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            results.add(executor.submit(() -> cacheManager.<String, String>computeIfAbsent("singleflight", "a", k -> {
+                calls.incrementAndGet();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "computed " + k;
+            })));
+        }
+        for (Future<String> result : results) {
+            assertThat(result.get()).isEqualTo("computed a");
+        }
+        executor.shutdown();
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(cacheManager.getUnblockingCache("singleflight").get("a")).isEqualTo("computed a");
+        assertThat(cacheManager.<String, String>computeIfAbsent("singleflight", "a", k -> "again")).isEqualTo("computed a");
+    }
+
+    @Test
+    public void computeIfAbsentMaxWait() throws Exception {
+        cacheManager.setSingleFlightMaxWait(Duration.ofMillis(50));
+        final CountDownLatch hanging = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<String> slow = executor.submit(() -> cacheManager.<String, String>computeIfAbsent("singleflight", "a", k -> {
+            started.countDown();
+            try {
+                hanging.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "slow";
+        }));
+        started.await();
+        // the waiting thread gives up and calculates it itself
+        assertThat(cacheManager.<String, String>computeIfAbsent("singleflight", "a", k -> "fast")).isEqualTo("fast");
+        hanging.countDown();
+        assertThat(slow.get()).isEqualTo("slow");
+        executor.shutdown();
+    }
+
+    @Test
+    public void enableStatistics() throws Exception {
+        cacheManager.enableStatistics("counts", true);
+        instance.getCachedCount("x");
+        instance.getCachedCount("x");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("javax.cache:type=CacheStatistics,CacheManager=" + MgnlCacheManager.class.getName() + ",Cache=counts");
+        assertThat(server.isRegistered(name)).isTrue();
+        assertThat(server.getAttribute(name, "CacheHits")).isEqualTo(1L);
+        assertThat(server.getAttribute(name, "CacheMisses")).isEqualTo(1L);
+        assertThat(server.getAttribute(name, "CachePuts")).isEqualTo(1L);
+
+        cacheManager.enableStatistics("counts", false);
+        assertThat(server.isRegistered(name)).isFalse();
+    }
+
 }
@@ -6,7 +6,7 @@ import javax.cache.annotation.CacheResult;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 
-import java.util.Iterator;
+import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -25,6 +25,25 @@ public class MgnlObjectsAwareCacheKeyGeneratorTest extends AbstractJSR107Test {
         public String getValue(Node node) throws RepositoryException {
             return node.getPath();
         }
+
+        @CacheResult(cacheKeyGenerator = MgnlObjectsAwareCacheKeyGenerator.class)
+        public String getValue(Thing thing, Integer i) {
+            return thing.name + i;
+        }
+    }
+
+    public static class Thing {
+        final String name;
+
+        Thing(String name) {
+            this.name = name;
+        }
+    }
+
+    public static class SpecialThing extends Thing {
+        SpecialThing(String name) {
+            super(name);
+        }
     }
     TestClass instance;
     @Before
@@ -46,4 +65,28 @@ public class MgnlObjectsAwareCacheKeyGeneratorTest extends AbstractJSR107Test {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void registered() {
+        MgnlObjectsAwareCacheKeyGenerator.register(Thing.class, t -> t.name);
+        assertEquals("a1", instance.getValue(new Thing("a"), 1));
+        assertEquals("b2", instance.getValue(new SpecialThing("b"), 2));
+
+        Iterator<Object[]> keys = cacheManager.getKeys(TestClass.class, instance, "getValue", Thing.class, Integer.class);
+        Set<List<Object>> found = new HashSet<>();
+        keys.forEachRemaining(k -> found.add(Arrays.asList(k)));
+        assertEquals(new HashSet<>(Arrays.asList(Arrays.asList("a", 1), Arrays.asList("b", 2))), found);
+
+        // registering again replaces the function, also for already seen classes
+        MgnlObjectsAwareCacheKeyGenerator.register(Thing.class, t -> "thing " + t.name);
+        instance.getValue(new SpecialThing("b"), 2);
+        keys = cacheManager.getKeys(TestClass.class, instance, "getValue", Thing.class, Integer.class);
+        found.clear();
+        keys.forEachRemaining(k -> found.add(Arrays.asList(k)));
+        assertTrue(found.contains(Arrays.asList("thing b", 2)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notSerializable() {
+        instance.getValue(new Thing("a"), null);
+    }
+}
@@ -0,0 +1,55 @@
+package nl.vpro.magnolia.jsr107;
+
+import java.io.*;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+public class SerializableGeneratedCacheKeyTest {
+
+    @Test
+    public void specialised() {
+        assertThat(SerializableGeneratedCacheKey.of()).isSameAs(SerializableGeneratedCacheKey.EMPTY);
+        assertThat(SerializableGeneratedCacheKey.of("a")).isInstanceOf(SerializableGeneratedCacheKey.One.class);
+        assertThat(SerializableGeneratedCacheKey.of("a", 1)).isInstanceOf(SerializableGeneratedCacheKey.Two.class);
+        assertThat(SerializableGeneratedCacheKey.of("a", 1, 2L).getClass()).isEqualTo(SerializableGeneratedCacheKey.class);
+        assertThat(SerializableGeneratedCacheKey.of((Serializable) new String[] {"a"}).getClass()).isEqualTo(SerializableGeneratedCacheKey.class);
+    }
+
+    @Test
+    public void equalToGeneral() {
+        for (Serializable[] parameters : new Serializable[][] {
+            {}, {"a"}, {null}, {"a", 1}, {null, "b"}, {"a", null}, {new String[] {"a", "b"}}
+        }) {
+            SerializableGeneratedCacheKey general = new SerializableGeneratedCacheKey(parameters);
+            SerializableGeneratedCacheKey specialised = SerializableGeneratedCacheKey.of(parameters);
+            assertThat(specialised).isEqualTo(general);
+            assertThat(general).isEqualTo(specialised);
+            assertThat(specialised.hashCode()).isEqualTo(Arrays.deepHashCode(parameters));
+            assertThat(specialised.getParameters()).isEqualTo(parameters);
+        }
+        assertThat(SerializableGeneratedCacheKey.of("a", 1)).isNotEqualTo(SerializableGeneratedCacheKey.of(1, "a"));
+        assertThat(SerializableGeneratedCacheKey.of("a")).isNotEqualTo(SerializableGeneratedCacheKey.of("a", null));
+    }
+
+    @Test
+    public void serialize() throws Exception {
+        for (SerializableGeneratedCacheKey key : new SerializableGeneratedCacheKey[] {
+            SerializableGeneratedCacheKey.EMPTY, SerializableGeneratedCacheKey.of("a"), SerializableGeneratedCacheKey.of("a", 1)
+        }) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(key);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                assertThat(in.readObject()).isEqualTo(key);
+            }
+        }
+    }
+}
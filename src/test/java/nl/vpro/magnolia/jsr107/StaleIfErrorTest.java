@@ -0,0 +1,91 @@
+package nl.vpro.magnolia.jsr107;
+
+import javax.cache.annotation.CacheResult;
+import javax.cache.annotation.GeneratedCacheKey;
+
+import org.jsr107.ri.annotations.DefaultGeneratedCacheKey;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+public class StaleIfErrorTest extends AbstractJSR107Test {
+
+    public static class TestClass {
+        int calls = 0;
+        boolean failing = false;
+
+        @CacheResult(cacheName = "stale")
+        @DefaultCacheSettings(timeToLiveSeconds = 1, staleIfErrorSeconds = 60)
+        public String get(String key) {
+            calls++;
+            if (failing) {
+                throw new IllegalStateException(key + calls);
+            }
+            return key + calls;
+        }
+    }
+
+    TestClass instance;
+
+    @Before
+    public void setup() {
+        instance = injector.getInstance(TestClass.class);
+    }
+
+    @Test
+    public void staleIfError() throws InterruptedException {
+        assertThat(instance.get("a")).isEqualTo("a1");
+        assertThat(instance.get("a")).isEqualTo("a1");
+        Thread.sleep(1100);
+
+        instance.failing = true;
+        assertThat(instance.get("a")).isEqualTo("a1");
+        assertThat(instance.calls).isEqualTo(2);
+        // not tried again for a second
+        assertThat(instance.get("a")).isEqualTo("a1");
+        assertThat(instance.calls).isEqualTo(2);
+
+        instance.failing = false;
+        Thread.sleep(1100);
+        assertThat(instance.get("a")).isEqualTo("a3");
+        assertThat(instance.get("a")).isEqualTo("a3");
+        assertThat(instance.calls).isEqualTo(3);
+    }
+
+    @Test
+    public void staleForOthers() throws InterruptedException {
+        assertThat(instance.get("c")).isEqualTo("c1");
+        final GeneratedCacheKey key = new DefaultGeneratedCacheKey(new Object[]{"c"});
+        assertThat(cacheManager.getCache("stale").get(key)).isEqualTo("c1");
+        Thread.sleep(1100);
+
+        assertThat(cacheManager.getCache("stale").get(key)).isNull();
+        assertThat(cacheManager.getCache("stale").containsKey(key)).isFalse();
+        assertThat(cacheManager.getUnblockingCache("stale").get(key)).isNull();
+        instance.failing = true;
+        assertThat(instance.get("c")).isEqualTo("c1");
+    }
+
+    @Test
+    public void noStaleValue() {
+        instance.failing = true;
+        try {
+            instance.get("b");
+            fail();
+        } catch (IllegalStateException ise) {
+            assertThat(ise.getMessage()).isEqualTo("b1");
+        }
+    }
+
+    @Test
+    public void settings() {
+        assertThat(CacheSettings.builder().build().getStaleIfErrorSeconds()).isEqualTo(0);
+        assertThat(CacheSettings.builder().staleIfErrorSeconds(600).build().getStaleIfErrorSeconds()).isEqualTo(600);
+    }
+}
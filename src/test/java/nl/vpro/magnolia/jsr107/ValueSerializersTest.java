@@ -0,0 +1,153 @@
+package nl.vpro.magnolia.jsr107;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+
+import org.ehcache.spi.serialization.SerializerException;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * @author Michiel Meeuwissen
+ * @since 1.15
+ */
+public class ValueSerializersTest {
+
+    private final CompactSerializer serializer = new CompactSerializer(getClass().getClassLoader());
+
+    @After
+    public void unregister() {
+        ValueSerializers.unregister(Movie.class);
+        ValueSerializers.unregister("movies");
+    }
+
+    @Test
+    public void byType() throws Exception {
+        ValueSerializers.register(Movie.class, new MovieSerializer());
+        assertThat(ValueSerializers.getRegistered()).containsExactly(Movie.class.getName());
+
+        Movie movie = new Movie("Alien", 1979);
+        CacheValue<?> read = (CacheValue<?>) serializer.read(serializer.serialize(CacheValue.of(movie)));
+        assertThat(read.orNull()).isEqualTo(movie);
+
+        SerializableGeneratedCacheKey key = new SerializableGeneratedCacheKey(movie, 1);
+        assertThat(serializer.read(serializer.serialize(key))).isEqualTo(key);
+
+        ValueSerializers.check();
+    }
+
+    @Test
+    public void byCache() throws Exception {
+        ValueSerializers.register("movies", new MovieSerializer());
+        assertThat(ValueSerializers.getRegistered()).containsExactly(ValueSerializers.CACHE_PREFIX + "movies");
+
+        CacheValue<Movie> value = CacheValue.of(new Movie("Alien", 1979));
+        value.setSerializer(ValueSerializers.forCache("movies"));
+        ByteBuffer bytes = serializer.serialize(value);
+        CacheValue<?> read = (CacheValue<?>) serializer.read(bytes);
+        assertThat(read.orNull()).isEqualTo(new Movie("Alien", 1979));
+        assertThat(read.getSerializer()).isEqualTo(ValueSerializers.CACHE_PREFIX + "movies");
+
+        CacheValue<Object> nullValue = CacheValue.of(AdaptedCache.NULL);
+        nullValue.setSerializer(ValueSerializers.forCache("movies"));
+        assertThat(((CacheValue<?>) serializer.read(serializer.serialize(nullValue))).orNull()).isEqualTo(AdaptedCache.NULL);
+
+        ValueSerializers.check();
+
+        ValueSerializers.unregister("movies");
+        bytes.rewind();
+        try {
+            serializer.read(bytes);
+            fail("Should have failed");
+        } catch (SerializerException se) {
+            assertThat(se.getMessage()).contains("movies");
+        }
+    }
+
+    @Test
+    public void byCacheOtherTypes() throws Exception {
+        ValueSerializers.register("movies", new MovieSerializer());
+        for (Object value : new Object[] {Optional.of(new Movie("Alien", 1979)), Optional.empty(), "not a movie", Optional.of("not a movie either")}) {
+            CacheValue<Object> cacheValue = CacheValue.of(value);
+            cacheValue.setSerializer(ValueSerializers.forCache("movies"));
+            CacheValue<?> read = (CacheValue<?>) serializer.read(serializer.serialize(cacheValue));
+            assertThat(read.orNull()).isEqualTo(value);
+        }
+    }
+
+    @Test
+    public void forCache() {
+        ValueSerializers.register("movies", new MovieSerializer());
+        assertThat(ValueSerializers.forCache("movies")).isEqualTo(ValueSerializers.CACHE_PREFIX + "movies");
+        assertThat(ValueSerializers.forCache("series")).isNull();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void checkFails() {
+        ValueSerializers.register(Movie.class, new MovieSerializer() {
+            @Override
+            public Movie read(DataInput in) throws IOException {
+                return new Movie(in.readUTF(), 0);
+            }
+        });
+        ValueSerializers.check();
+    }
+
+    static class Movie implements Serializable {
+        final String title;
+        final int year;
+
+        Movie(String title, int year) {
+            this.title = title;
+            this.year = year;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (! (o instanceof Movie)) {
+                return false;
+            }
+            Movie movie = (Movie) o;
+            return year == movie.year && Objects.equals(title, movie.title);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(title, year);
+        }
+
+        @Override
+        public String toString() {
+            return title + " (" + year + ")";
+        }
+    }
+
+    static class MovieSerializer implements ValueSerializer<Movie> {
+
+        @Override
+        public void write(Movie value, DataOutput out) throws IOException {
+            out.writeUTF(value.title);
+            out.writeInt(value.year);
+        }
+
+        @Override
+        public Movie read(DataInput in) throws IOException {
+            return new Movie(in.readUTF(), in.readInt());
+        }
+
+        @Override
+        public Collection<Movie> examples() {
+            return Arrays.asList(new Movie("Alien", 1979), new Movie("", -1));
+        }
+    }
+}
@@ -3,6 +3,7 @@ package nl.vpro.magnolia.jsr107.mock;
 import info.magnolia.module.cache.Cache;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -13,7 +14,7 @@ import java.util.Map;
  * @since 1.0
  */
 public class MockCache implements Cache  {
-    private final Map<Object, Object> backing = new LinkedHashMap<>();
+    private final Map<Object, Object> backing = Collections.synchronizedMap(new LinkedHashMap<>());
 
     private final String name;
 